@@ -1,3 +1,5 @@
+import java.nio.file.Path;
+
 import org.slf4j.LoggerFactory;
 
 import ch.qos.logback.classic.Level;
@@ -10,10 +12,15 @@ import commands.Init;
 import commands.Lsp;
 import commands.Run;
 import commands.Start;
+import commands.Stats;
+import common.BuildHistory;
+import common.Trace;
 import common.VersionProvider;
 import picocli.AutoComplete.GenerateCompletion;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.ParseResult;
+import picocli.CommandLine.RunLast;
 
 @Command(
 	name = "veles",
@@ -21,13 +28,34 @@ import picocli.CommandLine.Command;
 	mixinStandardHelpOptions = true,
 	versionProvider = VersionProvider.class,
 	subcommands = { Init.class, Dev.class, Run.class, Compile.class, Start.class, Dep.class,
-		Lsp.class, Format.class, GenerateCompletion.class }
+		Lsp.class, Format.class, Stats.class, GenerateCompletion.class }
 )
 public class App {
 	public static void main(String[] args) {
 		Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
 		logger.setLevel(Level.INFO);
 
-		new CommandLine(new App()).execute(args);
+		new CommandLine(new App()).setExecutionStrategy(App::execute).execute(args);
+	}
+
+	/// Start tracing before the command runs, so that loading the config is part of the trace
+	private static int execute(ParseResult parseResult) {
+		var command = parseResult.asCommandLineList().getLast();
+		Path trace = command.getParseResult().matchedOptionValue("--trace", null);
+		if (trace != null) {
+			Trace.start(trace);
+		}
+
+		// stats would mostly show itself
+		if (parseResult.hasSubcommand() && !"stats".equals(command.getCommandName())) {
+			BuildHistory.start(command.getCommandName(), parseResult.originalArgs());
+		}
+
+		try (var span = Trace.span("veles", command.getCommandName())) {
+			var res = new RunLast().execute(parseResult);
+			span.end(res);
+			BuildHistory.finish(res);
+			return res;
+		}
 	}
 }
@@ -0,0 +1,151 @@
+package agent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.Plugin;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+/**
+ * javac plugin loaded by `veles compile --profile`. Records the wall time of every javac phase,
+ * per compilation unit and per annotation processing round, prints the slowest ones when the
+ * compilation finishes and writes the full report to the file given as the plugin argument.
+ *
+ * Phases nest: annotation processing rounds contain the parsing and entering of generated sources,
+ * so the phase times do not add up to the total. The agent jar only contains the listed classes, so
+ * this one must not need nested or synthetic classes (e.g. the switch map of an enum switch).
+ *
+ * Usage: `javac --processor-path veles-agent.jar -Xplugin:"VelesProfiler <report file>"`
+ */
+public class CompileProfiler implements Plugin, TaskListener {
+	private static final int top = 5;
+
+	private final Map<String, Long> started = new HashMap<>();
+	/// Events of the same kind overlap (all units are entered at once), so phases are timed from
+	/// the first started event of the kind until no event of the kind is running anymore
+	private final Map<TaskEvent.Kind, Integer> running = new HashMap<>();
+	private final Map<TaskEvent.Kind, Long> runningSince = new HashMap<>();
+	private final Map<TaskEvent.Kind, Long> phases = new LinkedHashMap<>();
+	private final Map<String, Long> units = new HashMap<>();
+	private final List<Long> rounds = new ArrayList<>();
+	private long start;
+	private Path report;
+
+	@Override
+	public String getName() {
+		return "VelesProfiler";
+	}
+
+	@Override
+	public void init(JavacTask task, String... args) {
+		// javac splits the plugin string on whitespace, which also splits a path with spaces
+		report = Path.of(args.length == 0 ? "javac-profile.txt" : String.join(" ", args));
+		start = System.nanoTime();
+		task.addTaskListener(this);
+	}
+
+	@Override
+	public void started(TaskEvent e) {
+		var now = System.nanoTime();
+		started.put(key(e), now);
+		if (running.merge(e.getKind(), 1, Integer::sum) == 1) {
+			runningSince.put(e.getKind(), now);
+		}
+	}
+
+	@Override
+	public void finished(TaskEvent e) {
+		var from = started.remove(key(e));
+		if (from == null) {
+			return;
+		}
+
+		var now = System.nanoTime();
+		var took = now - from;
+		if (running.merge(e.getKind(), -1, Integer::sum) == 0) {
+			phases.merge(e.getKind(), now - runningSince.get(e.getKind()), Long::sum);
+		}
+
+		// entering is done for all the units at once and cannot be attributed to one
+		var kind = e.getKind();
+		if (kind == TaskEvent.Kind.ANNOTATION_PROCESSING_ROUND) {
+			rounds.add(took);
+		} else if (kind == TaskEvent.Kind.PARSE || kind == TaskEvent.Kind.ANALYZE
+			|| kind == TaskEvent.Kind.GENERATE) {
+			units.merge(e.getSourceFile().getName(), took, Long::sum);
+		}
+
+		if (e.getKind() == TaskEvent.Kind.COMPILATION) {
+			report(System.nanoTime() - start);
+		}
+	}
+
+	/// Phases of different units and classes overlap, so the events are paired by what they are about
+	private static String key(TaskEvent e) {
+		var unit = e.getSourceFile() == null ? "" : e.getSourceFile().toUri().toString();
+		var type = e.getTypeElement() == null ? "" : e.getTypeElement().getQualifiedName().toString();
+		return e.getKind() + " " + unit + " " + type;
+	}
+
+	private void report(long total) {
+		var slowest = units.entrySet().stream()
+			.sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+			.toList();
+
+		var summary = new StringBuilder();
+		phases.forEach((kind, took) -> {
+			if (kind != TaskEvent.Kind.COMPILATION) {
+				summary.append(summary.isEmpty() ? "" : ", ")
+					.append(kind.name().toLowerCase().replace('_', ' '))
+					.append(" ")
+					.append(millis(took))
+					.append(" ms");
+			}
+		});
+		System.err.printf("[veles] javac took %d ms: %s%n", millis(total), summary);
+		if (!rounds.isEmpty()) {
+			System.err.printf(
+				"[veles] %d annotation processing rounds took %d ms%n",
+				rounds.size(),
+				millis(rounds.stream().mapToLong(Long::longValue).sum())
+			);
+		}
+		for (var unit : slowest.subList(0, Math.min(top, slowest.size()))) {
+			System.err.printf("[veles]   %6d ms %s%n", millis(unit.getValue()), unit.getKey());
+		}
+
+		var lines = new ArrayList<String>();
+		lines.add("Total: %d ms".formatted(millis(total)));
+		lines.add("");
+		lines.add("Phases (nested phases are counted in their parents too):");
+		phases.forEach((kind, took) -> lines.add("%8d ms %s".formatted(millis(took), kind)));
+		lines.add("");
+		lines.add("Annotation processing rounds:");
+		for (int i = 0; i < rounds.size(); i++) {
+			lines.add("%8d ms round %d".formatted(millis(rounds.get(i)), i + 1));
+		}
+		lines.add("");
+		lines.add("Compilation units:");
+		for (var unit : slowest) {
+			lines.add("%8d ms %s".formatted(millis(unit.getValue()), unit.getKey()));
+		}
+		try {
+			Files.write(report, lines);
+			System.err.println("[veles] Profile written to " + report);
+		} catch (IOException ex) {
+			System.err.println("[veles] Could not write the profile to " + report + ": " + ex);
+		}
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1_000_000;
+	}
+}
@@ -0,0 +1,74 @@
+package agent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Java agent that is attached to the program started by `veles run --hot-swap`. It listens on a
+ * loopback port for batches of `<binary class name> <class file>` lines terminated by an empty
+ * line, redefines the classes that are already loaded and answers with `OK <count>` or
+ * `FAIL <reason>`, in which case veles restarts the program.
+ *
+ * This class is packaged into a separate jar by `common.AgentJar`, so it must only depend on the
+ * JDK and must not declare nested classes.
+ */
+public class HotSwapAgent {
+	public static void premain(String args, Instrumentation inst) {
+		var port = Integer.parseInt(args);
+		var thread = new Thread(() -> listen(port, inst), "veles-hot-swap");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void listen(int port, Instrumentation inst) {
+		try (var server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+			while (true) {
+				try (var socket = server.accept();
+					var in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+					var out = new PrintWriter(socket.getOutputStream(), true)) {
+					out.println(redefine(in, inst));
+				} catch (IOException e) {
+					// veles went away mid request, wait for the next one
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("[veles] Hot swap agent could not listen on " + port + ": " + e);
+		}
+	}
+
+	private static String redefine(BufferedReader in, Instrumentation inst) throws IOException {
+		var requested = new HashMap<String, Path>();
+		String line;
+		while ((line = in.readLine()) != null && !line.isEmpty()) {
+			var separator = line.indexOf(' ');
+			requested.put(line.substring(0, separator), Path.of(line.substring(separator + 1)));
+		}
+
+		var definitions = new ArrayList<ClassDefinition>();
+		for (var loaded : inst.getAllLoadedClasses()) {
+			var file = requested.get(loaded.getName());
+			if (file != null && inst.isModifiableClass(loaded)) {
+				definitions.add(new ClassDefinition(loaded, Files.readAllBytes(file)));
+			}
+		}
+
+		try {
+			inst.redefineClasses(definitions.toArray(ClassDefinition[]::new));
+			return "OK " + definitions.size();
+		} catch (UnsupportedOperationException | LinkageError | ClassNotFoundException
+			| UnmodifiableClassException e) {
+			return "FAIL " + e.toString().replace('\n', ' ');
+		}
+	}
+}
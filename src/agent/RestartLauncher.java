@@ -0,0 +1,123 @@
+package agent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Main class of the JVM started by `veles dev --reload`. Dependencies are loaded once by the
+ * application class loader, while the project classes are loaded by a throwaway class loader that
+ * is discarded and recreated every time `reload` is read from stdin. `reload <classes dir>` loads
+ * the project classes of the new class loader from another directory.
+ *
+ * Before the class loader is discarded, `static void stop()` of the main class is invoked if it
+ * exists, so that the program can release its ports, and the threads it started are interrupted.
+ *
+ * Usage: `RestartLauncher <classes dir> <main class> [args...]`
+ */
+public class RestartLauncher {
+	public static void main(String[] args) throws IOException, InterruptedException {
+		var classes = Path.of(args[0]);
+		var mainClass = args[1];
+		var programArgs = Arrays.copyOfRange(args, 2, args.length);
+		var commands = new BufferedReader(new InputStreamReader(System.in));
+
+		while (true) {
+			var parent = RestartLauncher.class.getClassLoader();
+			var urls = new URL[] { classes.toUri().toURL() };
+			var loader = new URLClassLoader("veles-restart", urls, parent);
+			var group = new ThreadGroup("veles-app");
+			var main = new Thread(group, () -> invokeMain(loader, mainClass, programArgs), "main");
+			main.setContextClassLoader(loader);
+			main.start();
+
+			String line;
+			while ((line = commands.readLine()) != null && !isReload(line.strip())) {
+			}
+			if (line == null) {
+				// veles is gone, nobody can reload us anymore
+				System.exit(0);
+			}
+			var next = line.strip().substring("reload".length()).strip();
+			if (!next.isEmpty()) {
+				classes = Path.of(next);
+			}
+
+			var start = System.nanoTime();
+			stop(loader, mainClass, group);
+			loader.close();
+			var took = (System.nanoTime() - start) / 1_000_000;
+			System.err.printf("[veles] Stopped in %d ms, reloading%n", took);
+		}
+	}
+
+	private static boolean isReload(String line) {
+		return line.equals("reload") || line.startsWith("reload ");
+	}
+
+	private static void invokeMain(ClassLoader loader, String mainClass, String[] args) {
+		try {
+			var type = Class.forName(mainClass, true, loader);
+			var main = findMain(type);
+			main.setAccessible(true);
+
+			Object instance = null;
+			if (!Modifier.isStatic(main.getModifiers())) {
+				var constructor = type.getDeclaredConstructor();
+				constructor.setAccessible(true);
+				instance = constructor.newInstance();
+			}
+
+			if (main.getParameterCount() == 0) {
+				main.invoke(instance);
+			} else {
+				main.invoke(instance, (Object) args);
+			}
+		} catch (InvocationTargetException e) {
+			e.getCause().printStackTrace();
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static Method findMain(Class<?> type) throws NoSuchMethodException {
+		try {
+			return type.getDeclaredMethod("main", String[].class);
+		} catch (NoSuchMethodException e) {
+			return type.getDeclaredMethod("main");
+		}
+	}
+
+	private static void stop(ClassLoader loader, String mainClass, ThreadGroup group)
+		throws InterruptedException {
+		try {
+			var stop = Class.forName(mainClass, false, loader).getDeclaredMethod("stop");
+			if (Modifier.isStatic(stop.getModifiers())) {
+				stop.setAccessible(true);
+				stop.invoke(null);
+			}
+		} catch (NoSuchMethodException e) {
+			// nothing to call, rely on interrupts
+		} catch (InvocationTargetException e) {
+			e.getCause().printStackTrace();
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+		}
+
+		var threads = new Thread[group.activeCount() * 2 + 1];
+		var count = group.enumerate(threads, true);
+		for (int i = 0; i < count; i++) {
+			threads[i].interrupt();
+		}
+		for (int i = 0; i < count; i++) {
+			threads[i].join(2000);
+		}
+	}
+}
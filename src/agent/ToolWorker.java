@@ -0,0 +1,237 @@
+package agent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Main class of the tool JVMs that veles keeps alive between the runs of a watch session, so that
+ * the tool is loaded and warmed up by the JIT once, instead of on every run. The tool is invoked
+ * in-process for every request, it has to load the project classes itself, in a class loader of its
+ * own (e.g. JUnit's `--class-path`), so that they are fresh on every run.
+ *
+ * Requests are read from stdin, one JSON object per line: `{"id":1,"args":["execute",...]}`.
+ * Everything printed while handling it is written to stdout as `{"id":1,"out":"line"}` or
+ * `{"id":1,"err":"line"}`, followed by `{"id":1,"exit":0}`. The worker exits once stdin is closed.
+ *
+ * Usage: `ToolWorker <tool class>`, the tool class needs a static `run` or `execute` method taking
+ * the out and err writers (or streams) and the arguments, like JUnit's `ConsoleLauncher` has.
+ */
+public class ToolWorker {
+	private static PrintStream protocol;
+	private static volatile long current;
+
+	public static void main(String[] args) throws Exception {
+		// stdout is the protocol, whatever the tool or the code it runs prints is framed
+		protocol = new PrintStream(new FileOutputStream(FileDescriptor.out), false, UTF_8);
+		var requests = new BufferedReader(new InputStreamReader(System.in, UTF_8));
+		System.setIn(InputStream.nullInputStream());
+		System.setOut(new PrintStream(new WorkerOutput("out"), false, UTF_8));
+		System.setErr(new PrintStream(new WorkerOutput("err"), false, UTF_8));
+
+		var tool = entrypoint(Class.forName(args[0]));
+		String line;
+		while ((line = requests.readLine()) != null) {
+			if (line.isBlank()) {
+				continue;
+			}
+			var request = parse(line);
+			current = (Long) request.get("id");
+			int exitCode;
+			try {
+				exitCode = invoke(tool, strings(request.get("args")));
+			} catch (Throwable e) {
+				e.printStackTrace();
+				exitCode = -1;
+			}
+			System.out.flush();
+			System.err.flush();
+			respond(current, "exit", String.valueOf(exitCode));
+		}
+	}
+
+	private static Method entrypoint(Class<?> tool) {
+		for (var method : tool.getMethods()) {
+			var params = method.getParameterTypes();
+			var named = method.getName().equals("run") || method.getName().equals("execute");
+			if (named
+				&& Modifier.isStatic(method.getModifiers())
+				&& params.length == 3
+				&& params[0] == params[1]
+				&& (params[0] == PrintWriter.class || params[0] == PrintStream.class)
+				&& params[2] == String[].class) {
+				return method;
+			}
+		}
+
+		throw new IllegalArgumentException(tool.getName() + " can not be run in a worker");
+	}
+
+	private static int invoke(Method tool, String[] args) throws Exception {
+		Object result;
+		try {
+			if (tool.getParameterTypes()[0] == PrintWriter.class) {
+				result = tool.invoke(
+					null,
+					new PrintWriter(System.out, true),
+					new PrintWriter(System.err, true),
+					args
+				);
+			} else {
+				result = tool.invoke(null, System.out, System.err, args);
+			}
+		} catch (InvocationTargetException e) {
+			throw e.getCause() instanceof Exception cause ? cause : e;
+		}
+
+		if (result instanceof Integer exitCode) {
+			return exitCode;
+		}
+		// JUnit returns a result object with the exit code
+		return (Integer) result.getClass().getMethod("getExitCode").invoke(result);
+	}
+
+	/// Write a frame of the request that is being handled, called by {@link WorkerOutput}
+	static void respond(String field, String text) {
+		respond(current, field, quote(text));
+	}
+
+	private static void respond(long id, String field, String json) {
+		synchronized (protocol) {
+			protocol.print("{\"id\":" + id + ",\"" + field + "\":" + json + "}\n");
+			protocol.flush();
+		}
+	}
+
+	/// @return JSON string literal of the text
+	public static String quote(String text) {
+		var json = new StringBuilder(text.length() + 2).append('"');
+		for (int i = 0; i < text.length(); i++) {
+			var c = text.charAt(i);
+			switch (c) {
+				case '"' -> json.append("\\\"");
+				case '\\' -> json.append("\\\\");
+				case '\n' -> json.append("\\n");
+				case '\r' -> json.append("\\r");
+				case '\t' -> json.append("\\t");
+				default -> {
+					if (c < 0x20) {
+						json.append("\\u%04x".formatted((int) c));
+					} else {
+						json.append(c);
+					}
+				}
+			}
+		}
+
+		return json.append('"').toString();
+	}
+
+	/**
+	 * Parse a flat JSON object of the protocol, the values can only be integers (as {@link Long}),
+	 * strings and arrays of strings (as {@link List}).
+	 */
+	public static Map<String, Object> parse(String json) {
+		var object = new HashMap<String, Object>();
+		var at = new int[] { skip(json, 0, '{') };
+		while (json.charAt(at[0]) != '}') {
+			var key = string(json, at);
+			at[0] = skip(json, at[0], ':');
+			object.put(key, value(json, at));
+			if (json.charAt(at[0]) == ',') {
+				at[0] = skip(json, at[0], ',');
+			}
+		}
+
+		return object;
+	}
+
+	private static Object value(String json, int[] at) {
+		var c = json.charAt(at[0]);
+		if (c == '"') {
+			return string(json, at);
+		}
+		if (c == '[') {
+			var values = new ArrayList<String>();
+			at[0] = skip(json, at[0], '[');
+			while (json.charAt(at[0]) != ']') {
+				values.add(string(json, at));
+				if (json.charAt(at[0]) == ',') {
+					at[0] = skip(json, at[0], ',');
+				}
+			}
+			at[0] = skip(json, at[0], ']');
+			return values;
+		}
+
+		var end = at[0];
+		while (end < json.length() && "-0123456789".indexOf(json.charAt(end)) != -1) {
+			end++;
+		}
+		var number = Long.parseLong(json.substring(at[0], end));
+		at[0] = whitespace(json, end);
+		return number;
+	}
+
+	private static String string(String json, int[] at) {
+		var text = new StringBuilder();
+		int i = at[0] + 1;
+		for (char c; (c = json.charAt(i)) != '"'; i++) {
+			if (c != '\\') {
+				text.append(c);
+				continue;
+			}
+			c = json.charAt(++i);
+			switch (c) {
+				case 'n' -> text.append('\n');
+				case 'r' -> text.append('\r');
+				case 't' -> text.append('\t');
+				case 'b' -> text.append('\b');
+				case 'f' -> text.append('\f');
+				case 'u' -> {
+					text.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+					i += 4;
+				}
+				default -> text.append(c);
+			}
+		}
+		at[0] = skip(json, i, '"');
+		return text.toString();
+	}
+
+	/// @return Index of the first non-whitespace character after the expected one at `from`
+	private static int skip(String json, int from, char expected) {
+		from = whitespace(json, from);
+		if (json.charAt(from) != expected) {
+			throw new IllegalArgumentException("Expected '" + expected + "' at " + from + ": " + json);
+		}
+
+		return whitespace(json, from + 1);
+	}
+
+	private static int whitespace(String json, int from) {
+		while (from < json.length() && Character.isWhitespace(json.charAt(from))) {
+			from++;
+		}
+
+		return from;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String[] strings(Object array) {
+		return array == null ? new String[0] : ((List<String>) array).toArray(String[]::new);
+	}
+}
@@ -0,0 +1,55 @@
+package agent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Stdout or stderr of a {@link ToolWorker}, every line written to it is sent as a frame of the
+ * request that is being handled. A line that is not finished is only sent when flushed explicitly,
+ * which the worker does after each request.
+ */
+public class WorkerOutput extends OutputStream {
+	private static final int maxLineLength = 64 * 1024;
+
+	private final String field;
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+	/// @param field Field of the frames, `out` or `err`
+	public WorkerOutput(String field) {
+		this.field = field;
+	}
+
+	@Override
+	public synchronized void write(int b) {
+		if (b == '\n') {
+			send();
+			return;
+		}
+		line.write(b);
+		if (line.size() >= maxLineLength) {
+			send();
+		}
+	}
+
+	@Override
+	public synchronized void write(byte[] bytes, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			write(bytes[i]);
+		}
+	}
+
+	@Override
+	public synchronized void flush() {
+		if (line.size() > 0) {
+			send();
+		}
+	}
+
+	private void send() {
+		var text = line.toString(UTF_8);
+		line.reset();
+		ToolWorker.respond(field, text.endsWith("\r") ? text.substring(0, text.length() - 1) : text);
+	}
+}
@@ -11,23 +11,49 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
+import common.AgentJar;
+import common.AotCache;
+import common.BuildHistory;
+import common.ChangeSet;
+import common.ChangeSet.Kind;
+import common.ClassGraph;
 import common.CliCommand;
 import common.DependencyResolution;
 import common.FilesUtil;
 import common.JdkResolver;
 import common.Paths;
+import common.Precompress;
+import common.ProcessorCache;
+import common.ResourceSync;
+import common.SourcePartitions;
+import common.TestImpact;
+import common.TestShards;
+import common.Trace;
+import common.Workers;
 import common.Zip;
 import config.Config;
 import config.ConfigDoc.ConfDependency;
 import config.ConfigDoc.ConfDependency.Scope;
 import config.ConfigDoc.Gav;
 import mixins.CommandExecutor;
+import mixins.CommandExecutor.Result;
 import picocli.CommandLine.ArgGroup;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Mixin;
@@ -40,6 +66,10 @@ import picocli.CommandLine.Parameters;
 		"Phases: clean -> compile -> unit test -> package -> integration test" }
 )
 public class Compile implements Runnable {
+	private static final String consoleLauncher = "org.junit.platform.console.ConsoleLauncher";
+	/// Recompiling dependents can change their ABI in turn, this bounds the rounds of dependents
+	private static final int maxRounds = 10;
+
 	@Mixin
 	CommandExecutor executor;
 
@@ -58,6 +88,35 @@ public class Compile implements Runnable {
 	@Option(names = { "-X", "--ignore-depfiles" }, description = { "Ignore .dep files" })
 	boolean ignoreDepfiles;
 
+	@Option(
+		names = { "-R", "--reachable" },
+		description = { "Only compile sources reachable from the entrypoint",
+			"Extra roots are taken from settings.compiler.roots and META-INF/services",
+			"Ignored when annotation processors are configured" }
+	)
+	boolean reachable;
+
+	@Option(
+		names = { "-P", "--parallel" },
+		description = { "Compile independent packages with concurrent javac processes",
+			"Ignored when annotation processors are configured" }
+	)
+	boolean parallel;
+
+	@Option(
+		names = { "--profile" },
+		description = { "Report where javac spends its time per phase, source and processor round",
+			"Written to target/reports/javac-*.txt" }
+	)
+	boolean profile;
+
+	@Option(
+		names = { "-w", "--watch" },
+		description = { "Keep target/classes and target/test-classes up to date",
+			"Reruns affected tests when combined with -t or -i" }
+	)
+	boolean watch;
+
 	@ArgGroup(exclusive = false, heading = "Packaging:\n")
 	Packaging packaging = new Packaging();
 
@@ -117,58 +176,263 @@ public class Compile implements Runnable {
 			arity = "1..*"
 		)
 		List<String> filterPatterns = Collections.emptyList();
+
+		@Option(
+			names = { "--affected" },
+			description = { "Run only the tests affected by the changes since the last successful run",
+				"or since the given git ref" },
+			arity = "0..1",
+			fallbackValue = "",
+			paramLabel = "<git ref>"
+		)
+		String affected;
+
+		@Option(
+			names = { "--forks" },
+			description = { "Split the test classes across N JVMs running concurrently",
+				"Balanced by the durations of the earlier runs" },
+			paramLabel = "N",
+			defaultValue = "1"
+		)
+		int forks;
 	}
 
 	@Parameters
 	List<String> args = Collections.emptyList();
 
+	/// Test JVMs kept alive while watching, null when every run forks its own
+	Workers workers;
+
 	public void run() {
+		build();
+
+		if (watch) {
+			Paths.watch(new CompileWatchHandler(this));
+		}
+	}
+
+	private void build() {
 		if (!skipClean) {
-			clean();
+			step("clean", this::clean);
 		}
 
 		if (!skipCompile) {
-			compile();
+			step("compile", this::compile);
 		}
 
 		if (testing.doUnit.length > 0) {
-			testCompile();
-			unitTestRun();
+			step("test compile", this::testCompile);
+			step("unit tests", () -> exitOnFailure(affectedTestRun("unit")));
 		}
 
 		if (packaging.doJar || packaging.doZip || packaging.doDocker || packaging.doUber) {
-			jar();
+			step("jar", this::jar);
 		}
 
 		if (packaging.doZip) {
-			zip();
+			step("zip", this::zip);
 		}
 
 		if (packaging.doDocker) {
-			docker();
+			step("docker", this::docker);
 		}
 
 		if (packaging.doUber || packaging.doExploded) {
-			uber();
+			step("uber", this::uber);
 		}
 
 		if (packaging.doExploded) {
-			exploded();
+			step("exploded", this::exploded);
 		}
 
 		if (packaging.doNative) {
-			_native();
+			step("native", this::_native);
 		}
 
 		if (testing.doIntegration.length > 0) {
 			if (testing.doUnit.length == 0) {
-				testCompile();
+				step("test compile", this::testCompile);
 			}
-			integrationTestRun();
+			step("integration tests", () -> exitOnFailure(affectedTestRun("integration")));
 		}
 
 		if (testing.doCover) {
-			generateCoverageReport();
+			step("coverage", this::generateCoverageReport);
+		}
+
+		executor.printSummary();
+	}
+
+	private static void step(String name, Runnable step) {
+		var start = System.currentTimeMillis();
+		try (var _ = Trace.span("step", name)) {
+			step.run();
+		} finally {
+			BuildHistory.phase(name, System.currentTimeMillis() - start);
+		}
+	}
+
+	private void exitOnFailure(int code) {
+		// keep watching, the failure was already reported and the next change might fix it
+		if (code != 0 && !watch) {
+			BuildHistory.finish(code);
+			System.exit(code);
+		}
+		if (code != 0) {
+			BuildHistory.failed(code);
+		}
+	}
+
+	/**
+	 * Keeps the classes and test classes output up to date. Resources are copied one by one, and
+	 * only the changed sources are recompiled, together with the sources that reference a class
+	 * whose ABI changed (see {@link ClassGraph}). Affected tests are rerun if testing was requested.
+	 */
+	public static class CompileWatchHandler implements Consumer<ChangeSet> {
+		private final Compile compile;
+		private final ClassGraph graph = new ClassGraph();
+
+		public CompileWatchHandler(Compile compile) {
+			this.compile = compile;
+			graph.add(Config.outputClassesDir(), Config.sourceDir(compile.entrypoint))
+				.add(Config.outputTestClassesDir(), Config.testDir());
+			if (Files.exists(Config.testDir()) && !Files.exists(Config.outputTestClassesDir())) {
+				compile.testCompile(null);
+			}
+			graph.refresh();
+			var idle = Config.workerIdleTimeout();
+			if (!idle.isZero()) {
+				compile.workers = new Workers(idle);
+			}
+			System.out.println("[veles] Watching for changes");
+		}
+
+		@Override
+		public void accept(ChangeSet changes) {
+			var start = System.nanoTime();
+			if (changes.has(Kind.CONFIG)) {
+				compile.build();
+				compile.testCompile(null);
+				graph.refresh();
+				summary(start, "full rebuild");
+				return;
+			}
+
+			var sourceDir = Config.sourceDir(compile.entrypoint);
+			var resources = changes.paths(Kind.RESOURCE);
+			var testResources = changes.paths(Kind.TEST)
+				.stream()
+				.filter(p -> !p.toString().endsWith(".java"))
+				.toList();
+			syncResources(resources, sourceDir, Config.outputClassesDir());
+			if (!resources.isEmpty()) {
+				compressResources();
+			}
+			syncResources(testResources, Config.testDir(), Config.outputTestClassesDir());
+
+			var sources = new LinkedHashSet<Path>(changes.paths(Kind.SOURCE));
+			var tests = new LinkedHashSet<Path>();
+			changes.paths(Kind.TEST)
+				.stream()
+				.filter(p -> p.toString().endsWith(".java"))
+				.forEach(tests::add);
+
+			// classes of changed and deleted sources are stale, javac does not remove the ones of
+			// nested classes that no longer exist
+			Stream.of(sources, tests, changes.deleted(Kind.SOURCE), changes.deleted(Kind.TEST))
+				.flatMap(Collection::stream)
+				.flatMap(s -> graph.classesOf(s).stream())
+				.map(graph::get)
+				.forEach(node -> {
+					try {
+						Files.deleteIfExists(node.file());
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				});
+			sources.removeIf(p -> !Files.exists(p));
+			tests.removeIf(p -> !Files.exists(p));
+
+			// dependents are only recompiled when the ABI of something they reference changed, which
+			// can in turn change their ABI, e.g. through inlined constants
+			var changed = new HashSet<String>();
+			var compiledSources = new HashSet<Path>();
+			var compiledTests = new HashSet<Path>();
+			for (int round = 0; round < maxRounds; round++) {
+				if (compile.compileChanged(sources) != 0) {
+					graph.refresh();
+					BuildHistory.failed(1);
+					summary(start, "compilation failed");
+					return;
+				}
+				changed.addAll(graph.refresh());
+				var abiChanged = new HashSet<>(graph.abiChanged());
+
+				if (compile.testCompile(tests) != 0) {
+					graph.refresh();
+					BuildHistory.failed(1);
+					summary(start, "test compilation failed");
+					return;
+				}
+				changed.addAll(graph.refresh());
+				abiChanged.addAll(graph.abiChanged());
+
+				compiledSources.addAll(sources);
+				compiledTests.addAll(tests);
+				sources = new LinkedHashSet<>();
+				tests = new LinkedHashSet<>();
+				for (var dependent : graph.dependents(abiChanged, false)) {
+					var node = graph.get(dependent);
+					if (node.source() == null || !Files.exists(node.source())) {
+						continue;
+					}
+					if (node.root().equals(Config.outputClassesDir())) {
+						sources.add(node.source());
+					} else {
+						tests.add(node.source());
+					}
+				}
+				if (sources.isEmpty() && tests.isEmpty()) {
+					break;
+				}
+			}
+
+			var status = "%d sources, %d tests, %d resources".formatted(
+				compiledSources.size(),
+				compiledTests.size(),
+				resources.size() + testResources.size()
+			);
+			if (compile.testing.doUnit.length > 0 || compile.testing.doIntegration.length > 0) {
+				status += ", " + runAffectedTests(changed);
+			}
+			summary(start, status);
+		}
+
+		private String runAffectedTests(Set<String> changed) {
+			var tests = TestImpact.affectedTests(graph, changed, Config.outputTestClassesDir());
+
+			var failed = 0;
+			var units = tests.stream().filter(t -> t.endsWith("Test")).toList();
+			if (compile.testing.doUnit.length > 0 && !units.isEmpty()) {
+				failed += compile.unitTestRun(units) == 0 ? 0 : 1;
+			}
+			var integrations = tests.stream().filter(t -> t.endsWith("IT")).toList();
+			if (compile.testing.doIntegration.length > 0 && !integrations.isEmpty()) {
+				failed += compile.integrationTestRun(integrations) == 0 ? 0 : 1;
+			}
+
+			if (tests.isEmpty()) {
+				return "no affected tests";
+			}
+			if (failed > 0) {
+				BuildHistory.failed(1);
+			}
+			return "%d test classes %s".formatted(tests.size(), failed == 0 ? "passed" : "failed");
+		}
+
+		private static void summary(long start, String status) {
+			var millis = (System.nanoTime() - start) / 1_000_000;
+			System.out.println("[veles] Rebuilt in %d ms: %s".formatted(millis, status));
 		}
 	}
 
@@ -177,7 +441,9 @@ public class Compile implements Runnable {
 			.getArtifact(new Gav("org.jacoco:org.jacoco.cli:" + jacocoVersion()), "nodeps")
 			.getFile()
 			.getAbsolutePath();
-		var command = new CliCommand.Java().option("-jar", jacocoCli)
+		var command = new CliCommand.Java()
+			.args(AotCache.options(JdkResolver.java(), "jacoco", List.of(jacocoCli)))
+			.option("-jar", jacocoCli)
 			.add("report")
 			.add(Config.outputDir().resolve("test-reports", "jacoco.exec").toString())
 			.option("--classfiles", Config.outputClassesDir().toString())
@@ -197,12 +463,132 @@ public class Compile implements Runnable {
 	}
 
 	private void testCompile() {
+		exitOnFailure(testCompileAvoiding());
+	}
+
+	/**
+	 * Only recompile the test sources that changed since the last test compilation, and the ones
+	 * that reference a main class whose ABI changed since then. Test classes whose ABI changes in
+	 * turn, e.g. shared helpers, get their dependents recompiled in further rounds. Compiles
+	 * everything when there are no test classes or no ABI snapshot from the last test compilation.
+	 *
+	 * @return Exit code of javac
+	 */
+	private int testCompileAvoiding() {
+		var snapshot = Config.outputVelesDir().resolve("test-abi.idx");
+		var graph = new ClassGraph().add(Config.outputClassesDir(), Config.sourceDir(entrypoint))
+			.add(Config.outputTestClassesDir(), Config.testDir());
+		graph.refresh();
+		var abis = graph.abis(Config.outputClassesDir());
+		var previous = ClassGraph.loadAbis(snapshot);
+
+		int res;
+		if (previous == null || !Files.exists(Config.outputTestClassesDir())) {
+			res = testCompile(null);
+		} else {
+			copyResources(Config.testDir(), Config.outputTestClassesDir());
+
+			var abiChanged = new HashSet<String>();
+			abis.forEach((name, abi) -> {
+				if (!abi.equals(previous.get(name))) {
+					abiChanged.add(name);
+				}
+			});
+			previous.keySet().stream().filter(name -> !abis.containsKey(name)).forEach(abiChanged::add);
+			abiChanged.addAll(graph.subtypes(abiChanged));
+
+			var stale = new LinkedHashSet<Path>();
+			FileTime compiledAt;
+			try {
+				compiledAt = Files.getLastModifiedTime(snapshot);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			try (var tests = Paths.allTestFiles()) {
+				tests.forEach(test -> {
+					try {
+						if (graph.classesOf(test).isEmpty()
+							|| Files.getLastModifiedTime(test).compareTo(compiledAt) > 0) {
+							stale.add(test);
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				});
+			}
+			for (var dependent : graph.dependents(abiChanged, false)) {
+				var node = graph.get(dependent);
+				if (node.root().equals(Config.outputTestClassesDir()) && node.source() != null) {
+					stale.add(node.source());
+				}
+			}
+			for (var name : graph.classes(Config.outputTestClassesDir())) {
+				var node = graph.get(name);
+				var source = node.source();
+				if (source == null || !Files.exists(source) || stale.contains(source)) {
+					try {
+						Files.deleteIfExists(node.file());
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}
+			stale.removeIf(p -> !Files.exists(p));
+
+			res = testCompile(stale);
+			for (int round = 1; res == 0 && round < maxRounds; round++) {
+				graph.refresh();
+				var dependents = new LinkedHashSet<Path>();
+				for (var dependent : graph.dependents(graph.abiChanged(), false)) {
+					var node = graph.get(dependent);
+					if (node.root().equals(Config.outputTestClassesDir())
+						&& node.source() != null
+						&& Files.exists(node.source())) {
+						dependents.add(node.source());
+					}
+				}
+				if (dependents.isEmpty()) {
+					break;
+				}
+				res = testCompile(dependents);
+			}
+		}
+
+		if (res == 0) {
+			ClassGraph.storeAbis(snapshot, abis);
+		}
+		return res;
+	}
+
+	/**
+	 * @param files Test sources to compile on top of the existing test classes or null to compile
+	 *              all of them
+	 * @return Exit code of javac
+	 */
+	private int testCompile(Collection<Path> files) {
 		var testPath = Config.testDir();
 		if (!Files.exists(testPath)) {
-			return;
+			return 0;
+		}
+		if (files != null && files.isEmpty()) {
+			return 0;
 		}
 
-		copyResources(testPath, Config.outputTestClassesDir());
+		List<Path> tests = null;
+		ProcessorCache processing = null;
+		if (files == null) {
+			copyResources(testPath, Config.outputTestClassesDir());
+			try (var all = Paths.allTestFiles()) {
+				tests = all.toList();
+			}
+			processing = new ProcessorCache(
+				Config.outputVelesDir().resolve("processors", "test"),
+				testPath,
+				Config.outputTestGeneratedDir(),
+				Config.outputTestClassesDir(),
+				tests
+			);
+		}
 
 		var command = new ArrayList<String>();
 		command.add(JdkResolver.javac().toString());
@@ -224,14 +610,21 @@ public class Compile implements Runnable {
 				.add(ConfDependency.parse("!org.junit.jupiter:junit-jupiter-params:" + junitVersion()))
 				.classpath()
 				.add(Config.outputClassesDir());
+			if (files != null) {
+				compileTestDeps.add(Config.outputTestClassesDir());
+			}
 
 			command.add("-cp");
 			command.add(compileTestDeps.toString());
 
-			var processors = mavenDeps().add(Scope.PROCESSOR).classpath().toString();
-			if (!processors.isBlank()) {
+			var processors = mavenDeps().add(Scope.PROCESSOR).classpath();
+			if (processing != null && processors.hasDeps()
+				&& processing.reuse(command, processors.jars)) {
+				command.add("-proc:none");
+				processing.generatedSources().stream().map(Path::toString).forEach(command::add);
+			} else if (processors.hasDeps()) {
 				command.add("--processor-path");
-				command.add(processors);
+				command.add(processors.toString());
 				command.add("-s");
 				command.add(Config.outputTestGeneratedDir().toString());
 			}
@@ -239,58 +632,222 @@ public class Compile implements Runnable {
 			command.add("-d");
 			command.add(Config.outputTestClassesDir().toString());
 		}
+		// after the processor cache key was computed from the options
+		command.addAll(1, AotCache.launcherOptions(JdkResolver.javac(), "javac"));
 
-		try (var files = Paths.allTestFiles()) {
-			files.map(Path::toString).forEach(command::add);
+		if (files == null) {
+			profile(command, "test");
+			tests.stream().map(Path::toString).forEach(command::add);
+		} else {
+			command.add("-implicit:none");
+			files.stream().map(Path::toString).forEach(command::add);
 		}
 
 		var res = executor.executeBlocking(command);
-		if (res != 0) {
-			System.exit(res);
+		if (res == 0 && processing != null) {
+			processing.record();
 		}
+		return res;
 	}
 
-	private void unitTestRun() {
-		var command = testCommand();
-		command.add("--include-classname");
-		command.add(".*Test$");
-		command.add("--reports-dir");
-		command.add(Config.outputDir().resolve("test-reports", "junit-unit").toString());
-		if (testing.doUnit.length == 2) {
-			command.add("--exclude-tag");
-			command.add("slow");
-		} else if (testing.doUnit.length == 3) {
-			command.add("--include-tag");
-			command.add("fast");
+	/**
+	 * Run the unit or integration tests, only the affected ones with `--affected`. The snapshot the
+	 * next run compares with is only taken when the run passed and no tests were filtered out.
+	 */
+	private int affectedTestRun(String kind) {
+		var unit = kind.equals("unit");
+		if (testing.affected == null) {
+			return unit ? unitTestRun(List.of()) : integrationTestRun(List.of());
 		}
 
-		var res = executor.executeBlocking(command);
-		if (res != 0) {
-			System.exit(res);
+		var roots = new LinkedHashMap<Path, Path>();
+		roots.put(Config.outputClassesDir(), Config.sourceDir(entrypoint));
+		roots.put(Config.outputTestClassesDir(), Config.testDir());
+		var graph = new ClassGraph();
+		roots.forEach(graph::add);
+		graph.refresh();
+		var impact = new TestImpact(
+			graph,
+			roots,
+			Config.outputTestClassesDir(),
+			Config.outputVelesDir().resolve("affected-" + kind + ".idx"),
+			testing.affected.isBlank() ? null : testing.affected
+		);
+
+		var tests = impact.select(name -> name.endsWith(unit ? "Test" : "IT"));
+		if (tests != null && tests.isEmpty()) {
+			System.out.println("[veles] No %s tests affected".formatted(kind));
+			return 0;
+		}
+		if (tests != null) {
+			System.out.println(
+				"[veles] Running %d affected %s test classes".formatted(tests.size(), kind)
+			);
+		}
+		var classes = tests == null ? List.<String>of() : tests;
+		var code = unit ? unitTestRun(classes) : integrationTestRun(classes);
+
+		var tags = unit ? testing.doUnit.length : testing.doIntegration.length;
+		if (code == 0 && tags == 1 && !testing.runOnly && testing.filterPatterns.isEmpty()) {
+			impact.record();
 		}
+		return code;
 	}
 
-	private void integrationTestRun() {
-		var command = testCommand();
-		command.add("--include-classname");
-		command.add(".*IT$");
-		command.add("--reports-dir");
-		command.add(Config.outputDir().resolve("test-reports", "junit-integration").toString());
-		if (testing.doIntegration.length == 2) {
-			command.add("--exclude-tag");
-			command.add("slow");
-		} else if (testing.doIntegration.length == 3) {
-			command.add("--include-tag");
-			command.add("fast");
+	/// @param classes Test classes to run, or empty to scan the test classes for all of them
+	private int unitTestRun(List<String> classes) {
+		return testRun("unit", classes, name -> name.endsWith("Test"), (shard, reportsDir) -> {
+			var command = testCommand(shard);
+			command.add("--include-classname");
+			command.add(".*Test$");
+			command.add("--reports-dir");
+			command.add(reportsDir.toString());
+			if (testing.doUnit.length == 2) {
+				command.add("--exclude-tag");
+				command.add("slow");
+			} else if (testing.doUnit.length == 3) {
+				command.add("--include-tag");
+				command.add("fast");
+			}
+			return command;
+		});
+	}
+
+	/// @param classes Test classes to run, or empty to scan the test classes for all of them
+	private int integrationTestRun(List<String> classes) {
+		return testRun("integration", classes, name -> name.endsWith("IT"), (shard, reportsDir) -> {
+			var command = testCommand(shard);
+			command.add("--include-classname");
+			command.add(".*IT$");
+			command.add("--reports-dir");
+			command.add(reportsDir.toString());
+			if (testing.doIntegration.length == 2) {
+				command.add("--exclude-tag");
+				command.add("slow");
+			} else if (testing.doIntegration.length == 3) {
+				command.add("--include-tag");
+				command.add("fast");
+			}
+			return command;
+		});
+	}
+
+	/**
+	 * Run the tests in one JVM, or split the test classes across `--forks` JVMs that run
+	 * concurrently, see {@link TestShards}. The durations in the reports are recorded outside of
+	 * watch sessions too, so that the shards are balanced the first time forks are used. A watch
+	 * session only reruns the affected tests, which would not add much.
+	 *
+	 * @param classes Test classes to run, or empty to run all that match the filter
+	 * @param command Command that runs the given classes and writes the reports into the directory
+	 */
+	private int testRun(String kind, List<String> classes, Predicate<String> filter,
+		BiFunction<List<String>, Path, List<String>> command) {
+		var reportsDir = Config.outputDir().resolve("test-reports", "junit-" + kind);
+		var shards = new TestShards(Config.outputVelesDir().resolve("test-times-" + kind + ".idx"));
+		var started = Instant.now();
+		if (testing.forks <= 1) {
+			var code = runTests(command.apply(classes, reportsDir));
+			if (!executor.opts.dryRun && !watch) {
+				shards.record(reportsDir, started);
+			}
+			return code;
 		}
 
-		var res = executor.executeBlocking(command);
-		if (res != 0) {
-			System.exit(res);
+		var all = classes.isEmpty()
+			? TestShards.discover(Config.outputTestClassesDir(), filter)
+			: classes;
+		if (all.isEmpty()) {
+			// same as what --fail-if-no-tests reports
+			System.out.println("[veles] No %s test classes found".formatted(kind));
+			return 2;
 		}
+		var split = shards.split(all, testing.forks);
+		var forkDirs = new ArrayList<Path>();
+		var commands = new ArrayList<List<String>>();
+		var failIfNoTests = false;
+		for (var shard : split) {
+			var forkDir = reportsDir.resolve("fork-" + (forkDirs.size() + 1));
+			forkDirs.add(forkDir);
+			var forked = command.apply(shard, forkDir);
+			// a shard can end up with only abstract classes, the forks are checked together below
+			failIfNoTests |= forked.remove("--fail-if-no-tests");
+			commands.add(forked);
+		}
+		if (executor.opts.verbose) {
+			System.out.println("[veles] Running %d %s test classes in %d forks".formatted(
+				all.size(),
+				kind,
+				split.size()
+			));
+		}
+
+		var results = executor.executeAll(commands, split.size(), false);
+		if (executor.opts.dryRun) {
+			return 0;
+		}
+		TestShards.merge(forkDirs, reportsDir);
+		shards.record(reportsDir, started);
+
+		var code = results.stream()
+			.mapToInt(Result::exitCode)
+			.filter(exitCode -> exitCode != 0)
+			.findFirst()
+			.orElse(0);
+		if (code == 0 && failIfNoTests && TestShards.testCount(reportsDir) == 0) {
+			// what --fail-if-no-tests does in a single JVM, e.g. when the tags match nothing
+			System.out.println("[veles] No %s tests found in any of the forks".formatted(kind));
+			return 2;
+		}
+		return code;
+	}
+
+	/**
+	 * Tests of a watch session run in a worker JVM that is kept alive between the runs, with the
+	 * project on JUnit's own class loader, so that it is fresh on every run. The coverage agent and
+	 * depfiles need the JVM started as configured, so they still fork one per run.
+	 */
+	private int runTests(List<String> command) {
+		var forked = workers == null
+			|| testing.doCover
+			|| executor.opts.dryRun
+			|| command.contains("@.dep.test");
+		if (forked) {
+			return executor.executeBlocking(command);
+		}
+
+		var jvm = new ArrayList<String>();
+		jvm.add(JdkResolver.java().toString());
+		if (Config.isPreviewEnabled()) {
+			jvm.add("--enable-preview");
+		}
+		jvm.add("-cp");
+		jvm.add(mavenDeps().add(junitLauncher()).classpath().add(AgentJar.path()).toString());
+
+		var launcher = command.indexOf(consoleLauncher);
+		var args = new ArrayList<>(command.subList(launcher + 1, command.size()));
+		var classpath = mavenDeps().add(Scope.COMPILE, Scope.RUNTIME, Scope.TEST)
+			.classpath()
+			.add(Config.outputClassesDir().toAbsolutePath())
+			.add(Config.outputTestClassesDir().toAbsolutePath());
+		// right after the subcommand
+		args.addAll(1, List.of("--class-path", classpath.toString()));
+		if (executor.opts.verbose) {
+			System.out.println("[veles] Running in a worker: " + String.join(" ", args));
+		}
+
+		return workers.execute(jvm, consoleLauncher, args);
+	}
+
+	private static ConfDependency[] junitLauncher() {
+		return new ConfDependency[] {
+			ConfDependency.parse("!org.junit.platform:junit-platform-console:" + junitVersion()),
+			ConfDependency.parse("!org.junit.jupiter:junit-jupiter-engine:" + junitVersion()),
+			ConfDependency.parse("!org.junit.jupiter:junit-jupiter-params:" + junitVersion())
+		};
 	}
 
-	private List<String> testCommand() {
+	private List<String> testCommand(List<String> classes) {
 		var command = new ArrayList<String>();
 		command.add(JdkResolver.java().toString());
 		if (testing.doCover) {
@@ -311,9 +868,7 @@ public class Compile implements Runnable {
 			command.add("@.dep.test");
 		} else {
 			var classpath = mavenDeps().add(Scope.COMPILE, Scope.RUNTIME, Scope.TEST)
-				.add(ConfDependency.parse("!org.junit.platform:junit-platform-console:" + junitVersion()))
-				.add(ConfDependency.parse("!org.junit.jupiter:junit-jupiter-engine:" + junitVersion()))
-				.add(ConfDependency.parse("!org.junit.jupiter:junit-jupiter-params:" + junitVersion()))
+				.add(junitLauncher())
 				.classpath()
 				.add(Config.outputClassesDir())
 				.add(Config.outputTestClassesDir())
@@ -323,9 +878,13 @@ public class Compile implements Runnable {
 			command.add(classpath);
 		}
 
-		command.add("org.junit.platform.console.ConsoleLauncher");
+		command.add(consoleLauncher);
 		command.add("execute");
-		command.add("--scan-class-path");
+		if (classes.isEmpty()) {
+			command.add("--scan-class-path");
+		} else {
+			classes.forEach(c -> command.add("--select-class=" + c));
+		}
 		command.add("--disable-banner");
 		command.add("--fail-if-no-tests");
 		if (testing.runOnly) {
@@ -467,8 +1026,10 @@ public class Compile implements Runnable {
 			throw new RuntimeException(ex);
 		}
 
-		var command = List.of(
-			"jar",
+		var command = new ArrayList<String>();
+		command.add(JdkResolver.jar().toString());
+		command.addAll(AotCache.launcherOptions(JdkResolver.jar(), "jar"));
+		command.addAll(List.of(
 			"-c",
 			"-f",
 			Config.outputDir().resolve(Config.outputJavaJarName()).toString(),
@@ -477,13 +1038,57 @@ public class Compile implements Runnable {
 			"-C",
 			Config.outputClassesDir().toString(),
 			"."
-		);
+		));
 
 		executor.executeBlocking(command);
 	}
 
+	/// Sync the non .java files, which only copies the ones that changed since the last build
 	private static void copyResources(Path source, Path target) {
-		FilesUtil.copyNonBuild(source, target, path -> !path.toString().endsWith(".java"));
+		var manifest = Config.outputVelesDir().resolve("resources-" + target.getFileName() + ".idx");
+		try (var span = Trace.span("resources", "sync " + source)) {
+			var result = new ResourceSync(source, target, manifest, Config.linkResources())
+				.sync(path -> !path.toString().endsWith(".java"));
+			span.arg("result", result);
+			BuildHistory.count("resources copied", result.copied() + result.linked());
+			BuildHistory.count("resources unchanged", result.unchanged());
+		}
+	}
+
+	/// Write `.gz` variants of the configured resources, only for the ones that changed
+	static void compressResources() {
+		if (Config.compressedResources().isEmpty()) {
+			return;
+		}
+
+		try (var span = Trace.span("resources", "compress")) {
+			var result = new Precompress(
+				Config.outputClassesDir(),
+				Config.outputVelesDir().resolve("compressed.idx"),
+				Config.compressedResources()
+			).run();
+			span.arg("result", result);
+		}
+	}
+
+	/**
+	 * Copy the changed resources from the source directory to the output directory and remove the
+	 * ones that were deleted.
+	 */
+	static void syncResources(Collection<Path> resources, Path source, Path target) {
+		for (var resource : resources) {
+			var dest = target.resolve(source.relativize(resource));
+			try {
+				if (Files.exists(resource)) {
+					Files.createDirectories(dest.getParent());
+					Files.copy(resource, dest, StandardCopyOption.REPLACE_EXISTING);
+				} else {
+					Files.deleteIfExists(dest);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
 	}
 
 	private void clean() {
@@ -500,10 +1105,241 @@ public class Compile implements Runnable {
 
 	/**
 	 * Clean the output directory and compile the source files using javac.
+	 *
+	 * @return Exit code of javac
 	 */
-	private void compile() {
+	int compile() {
 		copyResources(Config.sourceDir(entrypoint), Config.outputClassesDir());
+		compressResources();
+
+		var sources = Paths.allSourceFiles().toList();
+		BuildHistory.max("sources", sources.size());
+		var onlyReachable = reachable;
+		if (reachable && hasProcessors()) {
+			// javac doesn't run the processors on the sources it finds through --source-path
+			System.out.println("[veles] Compiling all sources, annotation processors need them");
+			onlyReachable = false;
+		}
+		if (parallel && !onlyReachable && !hasProcessors()) {
+			var width = Runtime.getRuntime().availableProcessors();
+			// a javac per group only pays off when the groups can overlap and wait for each other,
+			// otherwise the extra JVM startups only add to a single javac
+			var layers = width == 1
+				? List.<List<List<Path>>>of()
+				: new SourcePartitions(Config.sourceDir(entrypoint), sources).layers(width);
+			if (layers.size() > 1) {
+				return compileParallel(layers, width);
+			}
+			if (executor.opts.verbose) {
+				System.out.println("[veles] Compiling with a single javac, nothing to parallelize");
+			}
+		}
+
+		if (!onlyReachable) {
+			var processing = mainProcessorCache(sources);
+			var command = compileCommand(false, processing);
+			profile(command, "main");
+			sources.stream().map(Path::toString).forEach(command::add);
+			var res = executor.executeBlocking(command);
+			if (res == 0) {
+				processing.record();
+			}
+			return res;
+		}
+
+		var roots = reachableRoots();
+		var processing = mainProcessorCache(roots);
+		var command = compileCommand(false, processing);
+		profile(command, "main");
+		roots.stream().map(Path::toString).forEach(command::add);
+		// whole seconds, file systems with a coarse mtime round it down
+		var started = System.currentTimeMillis() / 1000 * 1000;
+		var res = executor.executeBlocking(command);
+		if (res == 0) {
+			processing.record();
+			var sourceDir = Config.sourceDir(entrypoint);
+			// with --skip-clean, the classes of earlier builds are still there
+			var skipped = sources.stream().filter(source -> {
+				var name = sourceDir.relativize(source).toString().replaceAll("\\.java$", ".class");
+				return !writtenSince(Config.outputClassesDir().resolve(name), started);
+			}).count();
+			System.out.println(
+				"[veles] Compiled from %d roots, skipped %d of %d sources as unreachable"
+					.formatted(roots.size(), skipped, sources.size())
+			);
+		}
+
+		return res;
+	}
+
+	private static boolean writtenSince(Path file, long millis) {
+		try {
+			return Files.getLastModifiedTime(file).toMillis() >= millis;
+		} catch (IOException e) {
+			return false;
+		}
+	}
 
+	private boolean hasProcessors() {
+		if (Files.exists(Path.of(".dep.compile")) && !ignoreDepfiles) {
+			return Paths.tryReadFile(Path.of(".dep.compile")).contains("--processor-path");
+		}
+
+		return mavenDeps().add(Scope.PROCESSOR).classpath().hasDeps();
+	}
+
+	/**
+	 * Compile the sources in layers of independent partitions (see {@link SourcePartitions}). The
+	 * groups of a layer are compiled concurrently, each against the classes of the earlier layers.
+	 * Every group writes to a directory of its own, merged into the classes output once the layer
+	 * is done, so a missed dependency between two groups never reads a half written class file.
+	 * Processors are not supported, because they might need to see all the sources in one round.
+	 *
+	 * @param layers Partitions of the sources, see {@link SourcePartitions#layers(int)}
+	 * @param width  Number of javac processes to run at once
+	 * @return Exit code of the first javac that failed
+	 */
+	private int compileParallel(List<List<List<Path>>> layers, int width) {
+		if (executor.opts.verbose) {
+			layers.forEach(layer -> System.out.println(
+				"[veles] Layer: " + layer.stream().map(g -> String.valueOf(g.size())).collect(joining(", "))
+					+ " files"
+			));
+		}
+
+		var groups = 0;
+		var groupsDir = Config.outputVelesDir().resolve("groups");
+		FilesUtil.deleteDir(groupsDir);
+		for (var layer : layers) {
+			var commands = new ArrayList<List<String>>();
+			var outputs = new ArrayList<Path>();
+			for (var group : layer) {
+				var command = compileCommand(true, null);
+				profile(command, "main-" + ++groups);
+				// javac takes the last -d, including the one of .dep.compile
+				var output = groupsDir.resolve(String.valueOf(groups));
+				command.addAll(List.of("-d", output.toString()));
+				command.add("-implicit:none");
+				group.stream().map(Path::toString).forEach(command::add);
+				commands.add(command);
+				outputs.add(output);
+			}
+
+			var failed = executor.executeAll(commands, width, true).stream()
+				.filter(Result::failed)
+				.findFirst();
+			if (failed.isPresent()) {
+				FilesUtil.deleteDir(groupsDir);
+				return failed.get().exitCode();
+			}
+
+			// the next layers compile against these classes
+			for (var output : outputs) {
+				if (Files.exists(output)) {
+					FilesUtil.copyDir(output, Config.outputClassesDir());
+				}
+			}
+			FilesUtil.deleteDir(groupsDir);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * The entrypoint, the configured roots and the providers listed in `META-INF/services`. javac
+	 * compiles the rest of the sources they reference through `--source-path`.
+	 */
+	private Set<Path> reachableRoots() {
+		var sourceDir = Config.sourceDir(entrypoint);
+		var classes = new LinkedHashSet<String>();
+		classes.add(Config.getEntrypoint(entrypoint).canonicalName());
+		classes.addAll(Config.getCompileRoots());
+		Paths.allResourceFiles()
+			.filter(p -> sourceDir.relativize(p).startsWith(Path.of("META-INF", "services")))
+			.forEach(services -> {
+				for (var line : Paths.tryReadFile(services).lines().toList()) {
+					var provider = line.replaceAll("#.*", "").strip();
+					if (!provider.isEmpty()) {
+						classes.add(provider);
+					}
+				}
+			});
+
+		var roots = new LinkedHashSet<Path>();
+		for (var className : classes) {
+			var topLevel = className.replaceAll("\\$.*", "");
+			var file = sourceDir.resolve(topLevel.replace('.', '/') + ".java");
+			if (Files.exists(file)) {
+				roots.add(file);
+			} else {
+				System.err.println("[veles] Compile root " + className + " has no source in " + sourceDir);
+			}
+		}
+
+		return roots;
+	}
+
+	/**
+	 * Compile only the given source files on top of the existing classes output. Classes of the
+	 * other sources are taken from the output, or parsed from the source path, but not written.
+	 *
+	 * @return Exit code of javac
+	 */
+	int compileChanged(Collection<Path> files) {
+		if (files.isEmpty()) {
+			return 0;
+		}
+
+		var command = compileCommand(true, null);
+		command.add("-implicit:none");
+		files.stream().map(Path::toString).forEach(command::add);
+
+		return executor.executeBlocking(command);
+	}
+
+	/**
+	 * Load {@link agent.CompileProfiler} from the agent jar, which javac looks up on the processor
+	 * path. The arguments from the depfiles are not visible here, so builds using them are not
+	 * profiled.
+	 */
+	private void profile(List<String> command, String name) {
+		if (!profile) {
+			return;
+		}
+		if (command.stream().anyMatch(arg -> arg.startsWith("@"))) {
+			System.out.println("[veles] Profiling does not support .dep files, use -X to ignore them");
+			return;
+		}
+
+		var jar = AgentJar.path().toString();
+		var processorPath = command.indexOf("--processor-path");
+		if (processorPath == -1) {
+			command.add("--processor-path");
+			command.add(jar);
+		} else {
+			command.set(processorPath + 1, command.get(processorPath + 1) + File.pathSeparator + jar);
+		}
+
+		// relative, javac runs in the project directory and splits the argument on whitespace
+		var report = Config.outputDir().resolve("reports", "javac-" + name + ".txt");
+		Paths.ensureDirExists(report.getParent());
+		command.add("-Xplugin:VelesProfiler " + report);
+	}
+
+	private ProcessorCache mainProcessorCache(Collection<Path> sources) {
+		return new ProcessorCache(
+			Config.outputVelesDir().resolve("processors", "main"),
+			Config.sourceDir(entrypoint),
+			Config.outputGeneratedDir(),
+			Config.outputClassesDir(),
+			sources
+		);
+	}
+
+	/**
+	 * @param processing Cache of the processor outputs, or null to always run the processors
+	 */
+	private List<String> compileCommand(boolean incremental, ProcessorCache processing) {
 		var command = new ArrayList<String>();
 		command.add(JdkResolver.javac().toString());
 		command.add("--source-path");
@@ -520,13 +1356,20 @@ public class Compile implements Runnable {
 			command.add("@.dep.compile");
 		} else {
 			var classpath = mavenDeps().add(Scope.COMPILE, Scope.PROVIDED).classpath();
+			if (incremental) {
+				classpath.add(Config.outputClassesDir());
+			}
 			if (classpath.hasDeps()) {
 				command.add("-cp");
 				command.add(classpath.toString());
 			}
 
 			var processors = mavenDeps().add(Scope.PROCESSOR).classpath();
-			if (processors.hasDeps()) {
+			if (processing != null && processors.hasDeps()
+				&& processing.reuse(command, processors.jars)) {
+				command.add("-proc:none");
+				processing.generatedSources().stream().map(Path::toString).forEach(command::add);
+			} else if (processors.hasDeps()) {
 				command.add("--processor-path");
 				command.add(processors.toString());
 				command.add("-s");
@@ -536,10 +1379,10 @@ public class Compile implements Runnable {
 			command.add("-d");
 			command.add(Config.outputClassesDir().toString());
 		}
+		// after the processor cache key was computed from the options
+		command.addAll(1, AotCache.launcherOptions(JdkResolver.javac(), "javac"));
 
-		Paths.allSourceFiles().map(Path::toString).forEach(command::add);
-
-		executor.executeBlocking(command);
+		return command;
 	}
 
 	/**
@@ -1,13 +1,17 @@
 package commands;
 
+import static common.DependencyResolution.mavenDeps;
 import static org.jline.keymap.KeyMap.alt;
 import static tui.Keys.Key.A;
 import static tui.Keys.Key.C;
 import static tui.Keys.Key.F;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -16,7 +20,17 @@ import java.util.function.Consumer;
 import org.jline.terminal.Terminal;
 import org.jline.terminal.TerminalBuilder;
 
+import common.AgentJar;
+import common.BuildHistory;
+import common.FilesUtil;
+import common.JdkResolver;
+import common.OutputPump;
+import common.Readiness;
+import config.Config;
+import config.ConfigDoc.ConfDependency.Scope;
 import mixins.CommandExecutor;
+import mixins.SwapOptions;
+import picocli.CommandLine.ArgGroup;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
@@ -36,16 +50,28 @@ public class Dev implements Runnable {
 	@Option(names = { "--jar", "-j" })
 	boolean doJar;
 
+	@Option(
+		names = { "--reload", "-r" },
+		description = { "Keep the JVM alive and reload only the project classes on rerun" }
+	)
+	boolean reload;
+
+	@ArgGroup(exclusive = false, heading = "Swap:\n")
+	SwapOptions swap = new SwapOptions();
+
 	@Mixin
 	CommandExecutor executor;
 
 	public void run() {
+		if (swap.enabled) {
+			swap.readiness().check();
+		}
 		executor.setQuiet(true);
 		try {
 			Terminal terminal = TerminalBuilder.builder().system(true).build();
 
 			var renderer = new Renderer(terminal);
-			var dev = new DevControls(terminal, executor, quick, doJar);
+			var dev = new DevControls(terminal, executor, quick, doJar, reload, swap);
 
 			renderer.addChild(dev);
 			renderer.focus(dev.input);
@@ -56,20 +82,35 @@ public class Dev implements Runnable {
 	}
 
 	private static class DevControls extends Container {
+		private static final List<String> classpathOptions = List
+			.of("-cp", "-classpath", "--class-path");
+
 		private Input input;
 		private Tabs tabs;
 		private Process currentProcess;
-		private ExecutorService logAppender;
 		private ExecutorService runner;
 		private CommandExecutor executor;
 		private boolean quick;
 		private boolean doJar;
-
-		public DevControls(Terminal terminal, CommandExecutor executor, boolean quick, boolean doJar) {
+		private boolean reload;
+		private Process launcher;
+		private String launcherArgs;
+		private LogFeed launcherFeed;
+		private SwapOptions swap;
+		private volatile boolean swapping;
+		private Path currentOutput;
+		private Path retiredOutput;
+
+		public DevControls(Terminal terminal, CommandExecutor executor, boolean quick, boolean doJar,
+			boolean reload, SwapOptions swap) {
 			super(terminal);
 			this.executor = executor;
 			this.quick = quick;
 			this.doJar = doJar;
+			this.reload = reload;
+			this.swap = swap;
+			// every run from the input is recorded as a rebuild
+			BuildHistory.watching();
 
 			tabs = initTabs();
 			tabs.move(0, 2);
@@ -109,38 +150,100 @@ public class Dev implements Runnable {
 
 		private Consumer<Input> handleOnChange(Tabs tabs) {
 			return (el) -> {
+				if (isReloadable() && el.value().equals(launcherArgs)) {
+					reloadLauncher();
+					return;
+				}
+				var swapIn = swap.enabled
+					&& !reload
+					&& !quick
+					&& currentProcess != null
+					&& currentProcess.isAlive();
+				if (!swapIn) {
+					stopManagedProcess();
+				}
+
 				var logFeed = new LogFeed(terminal);
 				logFeed.resize(terminal.getWidth(), terminal.getHeight());
 				tabs.addTab(logFeed);
 
 				executor.beforeStart((builder) -> {
-					stopManagedProcess();
+					// javac runs next to the launcher while reloading and next to the old process while
+					// swapping, neither of them must be stopped by it
+					var tracked = !isReloadable() && !swapping;
+					if (tracked) {
+						stopManagedProcess();
+					}
+
+					Process process;
 					try {
-						currentProcess = builder.start();
+						process = builder.start();
 					} catch (IOException e) {
 						logFeed.append(e.getMessage());
 						throw new RuntimeException(e);
 					}
 
-					logAppender = Executors.newVirtualThreadPerTaskExecutor();
-					logAppender
-						.execute(new LogFeedWriter(tabs, logFeed, input, currentProcess.getInputStream()));
-					logAppender
-						.execute(new LogFeedWriter(tabs, logFeed, input, currentProcess.getErrorStream()));
+					if (tracked) {
+						currentProcess = process;
+					}
 
-					return currentProcess;
+					return process;
+				});
+				executor.onOutput((_, output) -> {
+					output.subscribe(new LogFeedWriter(tabs, logFeed, input));
 				});
 
-				runWithArgs(el.value(), logFeed);
+				if (swapIn) {
+					swapWithArgs(el.value(), logFeed);
+				} else {
+					runWithArgs(el.value(), logFeed);
+				}
 			};
 		}
 
+		private boolean isReloadable() {
+			return launcher != null && launcher.isAlive();
+		}
+
 		private void runWithArgs(String args, LogFeed logFeed) {
 			if (runner != null) {
 				runner.shutdownNow();
 			}
 			runner = Executors.newSingleThreadExecutor();
-			if (quick) {
+			if (reload) {
+				runner.submit(() -> {
+					logFeed.append("--------------------");
+					logFeed.append("Compiling...");
+					logFeed.append("--------------------");
+					logFeed.append("");
+
+					BuildHistory.rebuilding();
+					var compile = new Compile();
+					compile.executor = executor;
+					var compiled = compile.compile();
+					BuildHistory.rebuilt(compiled);
+					if (compiled != 0) {
+						logFeed.append("Compilation failed");
+						return;
+					}
+
+					logFeed.append("");
+					logFeed.append("--------------------");
+					logFeed.append("Starting reloadable JVM...");
+					logFeed.append("--------------------");
+					logFeed.append("");
+
+					var output = stageClasses();
+					launcher = executor.execute(launcherCommand(args, output));
+					if (launcher == null) {
+						delete(output);
+						return;
+					}
+					currentOutput = output;
+					launcherArgs = args;
+					launcherFeed = logFeed;
+				});
+			} else if (quick) {
 				runner.submit(() -> {
 					var run = new Run();
 					run.executor = executor;
@@ -154,10 +257,12 @@ public class Dev implements Runnable {
 					logFeed.append("--------------------");
 					logFeed.append("");
 
+					BuildHistory.rebuilding();
 					var compile = new Compile();
 					compile.executor = executor;
 					compile.packaging.doJar = doJar;
 					compile.run();
+					BuildHistory.rebuilt(0);
 
 					logFeed.append("");
 					logFeed.append("--------------------");
@@ -169,54 +274,280 @@ public class Dev implements Runnable {
 					run.executor = executor;
 					run.target.jar = doJar;
 					run.args = List.of(args.split(" "));
-					run.run();
+					if (!swap.enabled) {
+						run.run();
+						return;
+					}
+
+					// not waited for, interrupting the runner on the next swap would stop it
+					run.output = stage();
+					if (executor.execute(run.command()) != null) {
+						currentOutput = run.output;
+					} else {
+						delete(run.output);
+					}
 				});
 			}
 		}
 
+		/**
+		 * Build and start the new process while the old one keeps running. The old process is only
+		 * stopped once the new one passes the readiness probe, a failed build or a process that
+		 * doesn't become ready leaves the old one in place. Both of them run from a copy of the
+		 * output (see {@link #stage()}), so that the build doesn't change the classes of the old one.
+		 */
+		private void swapWithArgs(String args, LogFeed logFeed) {
+			if (runner != null) {
+				runner.shutdownNow();
+			}
+			runner = Executors.newSingleThreadExecutor();
+			runner.submit(() -> {
+				swapping = true;
+				try {
+					logFeed.append("--------------------");
+					logFeed.append("Compiling...");
+					logFeed.append("--------------------");
+					logFeed.append("");
+
+					BuildHistory.rebuilding();
+					var compile = new Compile();
+					compile.executor = executor;
+					compile.skipClean = true;
+					compile.packaging.doJar = doJar;
+					var compiled = compile.compile();
+					if (compiled != 0) {
+						BuildHistory.rebuilt(compiled);
+						logFeed.append("Compilation failed, the old process keeps running");
+						return;
+					}
+					compile.skipCompile = true;
+					compile.run();
+					BuildHistory.rebuilt(0);
+
+					logFeed.append("");
+					logFeed.append("--------------------");
+					logFeed.append("Starting next to the old process...");
+					logFeed.append("--------------------");
+					logFeed.append("");
+
+					var start = new Start();
+					start.executor = executor;
+					start.target.jar = doJar;
+					start.args = List.of(args.split(" "));
+					start.output = stage();
+
+					var readiness = swap.readiness();
+					var next = executor.execute(start.command());
+					if (next == null) {
+						delete(start.output);
+						return;
+					}
+					// only the new process can pass the log probe, not the old one or the build steps
+					executor.output(next).subscribe(lines -> {
+						lines.forEach(line -> readiness.accept(line.text()));
+					});
+
+					var status = readiness.await(next);
+					if (status == Readiness.Status.READY) {
+						stopManagedProcess();
+						currentProcess = next;
+						currentOutput = start.output;
+						logFeed.append("[veles] Swapped to the new process");
+					} else {
+						next.destroy();
+						delete(start.output);
+						logFeed.append("[veles] New process is " + status + ", keeping the old one");
+					}
+				} finally {
+					swapping = false;
+				}
+			});
+		}
+
+		/**
+		 * Recompile from scratch, so that the classes of deleted sources are gone, and tell the
+		 * launcher to rebuild the class loader of the project classes from a new copy of them. The
+		 * old class loader keeps reading its own copy until the program stopped. The program keeps
+		 * running if the compilation fails.
+		 */
+		private void reloadLauncher() {
+			runner.submit(() -> {
+				launcherFeed.append("");
+				launcherFeed.append("--------------------");
+				launcherFeed.append("Reloading...");
+				launcherFeed.append("--------------------");
+				launcherFeed.append("");
+
+				BuildHistory.rebuilding();
+				FilesUtil.deleteDir(Config.outputClassesDir());
+				var compile = new Compile();
+				compile.executor = executor;
+				var compiled = compile.compile();
+				BuildHistory.rebuilt(compiled);
+				if (compiled != 0) {
+					launcherFeed.append("Compilation failed, the program keeps running");
+					return;
+				}
+
+				var output = stageClasses();
+				try {
+					var stdin = launcher.getOutputStream();
+					stdin.write(("reload " + output.toAbsolutePath() + "\n").getBytes());
+					stdin.flush();
+				} catch (IOException e) {
+					delete(output);
+					launcherFeed.append("Could not reload: " + e.getMessage());
+					return;
+				}
+				// the copy before the current one is no longer loaded from after the last reload
+				if (retiredOutput != null) {
+					delete(retiredOutput);
+				}
+				retiredOutput = currentOutput;
+				currentOutput = output;
+			});
+		}
+
+		private List<String> launcherCommand(String args, Path classes) {
+			var command = new ArrayList<String>();
+			command.add(JdkResolver.java().toString());
+			if (Config.isPreviewEnabled()) {
+				command.add("--enable-preview");
+			}
+			if (Files.exists(Path.of(".dep.runtime"))) {
+				command.addAll(launcherDepfile(Path.of(".dep.runtime")));
+			} else {
+				command.add("-cp");
+				command.add(
+					mavenDeps().add(Scope.COMPILE, Scope.RUNTIME)
+						.classpath()
+						.add(AgentJar.path())
+						.toString()
+				);
+			}
+			command.add("agent.RestartLauncher");
+			command.add(classes.toAbsolutePath().toString());
+			command.add(Config.getEntrypoint().canonicalName());
+			if (!args.isBlank()) {
+				command.addAll(List.of(args.split(" ")));
+			}
+
+			return command;
+		}
+
+		/// Arguments of the depfile, one per line as `veles dep save` writes them, with the launcher
+		/// on the classpath instead of the classes directory, which the launcher loads itself
+		private static List<String> launcherDepfile(Path depfile) {
+			List<String> lines;
+			try {
+				lines = Files.readAllLines(depfile)
+					.stream()
+					.map(String::strip)
+					.filter(line -> !line.isEmpty())
+					.toList();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+
+			var arguments = new ArrayList<String>();
+			var classpath = false;
+			for (int i = 0; i < lines.size(); i++) {
+				arguments.add(lines.get(i));
+				if (classpathOptions.contains(lines.get(i)) && i + 1 < lines.size()) {
+					var entries = new ArrayList<>(List.of(lines.get(++i).split(File.pathSeparator)));
+					entries.removeIf(entry -> Path.of(entry).equals(Config.outputClassesDir()));
+					entries.add(AgentJar.path().toString());
+					arguments.add(String.join(File.pathSeparator, entries));
+					classpath = true;
+				}
+			}
+			if (!classpath) {
+				arguments.addAll(List.of("-cp", AgentJar.path().toString()));
+			}
+
+			return arguments;
+		}
+
 		private void stopManagedProcess() {
 			if (currentProcess != null) {
 				currentProcess.destroy();
-				logAppender.shutdownNow();
 				currentProcess = null;
-				logAppender = null;
 			}
+			if (currentOutput != null) {
+				delete(currentOutput);
+				currentOutput = null;
+			}
+			if (retiredOutput != null) {
+				delete(retiredOutput);
+				retiredOutput = null;
+			}
+			launcher = null;
+			launcherArgs = null;
+		}
+
+		/**
+		 * Copy the build output for a process that may be swapped out later. The next build replaces
+		 * the output while the process is still running, which would otherwise load classes of the
+		 * new build or read a half written jar.
+		 */
+		private Path stage() {
+			var version = "swap-" + System.nanoTime();
+			if (!doJar) {
+				var staged = Config.outputVelesDir().resolve(version);
+				FilesUtil.copyDir(Config.outputClassesDir(), staged);
+				return staged;
+			}
+
+			var jar = Config.outputJavaJarPath();
+			// next to the jar, the Class-Path of its manifest is relative to it
+			var staged = jar.resolveSibling(version + "-" + jar.getFileName());
+			try {
+				Files.copy(jar, staged, StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return staged;
+		}
+
+		/// Copy of the classes for the reloadable JVM, see {@link #reloadLauncher()}
+		private static Path stageClasses() {
+			var staged = Config.outputVelesDir().resolve("reload-" + System.nanoTime());
+			FilesUtil.copyDir(Config.outputClassesDir(), staged);
+			return staged;
 		}
 
-		private static class LogFeedWriter implements Runnable {
+		private static void delete(Path output) {
+			if (Files.isDirectory(output)) {
+				FilesUtil.deleteDir(output);
+				return;
+			}
+			try {
+				Files.deleteIfExists(output);
+			} catch (IOException e) {
+				// still open on Windows, the next clean removes it
+			}
+		}
+
+		private static class LogFeedWriter implements Consumer<List<OutputPump.Line>> {
 			private Tabs tabs;
 			private LogFeed logFeed;
 			private Input input;
-			private InputStream inputStream;
 
-			public LogFeedWriter(Tabs tabs, LogFeed logFeed, Input input, InputStream inputStream) {
+			public LogFeedWriter(Tabs tabs, LogFeed logFeed, Input input) {
 				this.tabs = tabs;
 				this.input = input;
 				this.logFeed = logFeed;
-				this.inputStream = inputStream;
-			}
-
-			public void run() {
-				try (var reader = new InputStreamReader(inputStream)) {
-					var output = new char[8192];
-					var readBytes = 0;
-					var leftover = new StringBuilder();
-					while ((readBytes = reader.read(output, 0, output.length)) != -1) {
-						leftover.append(output, 0, readBytes);
-						int newLineIndex = 0;
-						int oldNewLineIndex = 0;
-						while ((newLineIndex = leftover.indexOf("\n", newLineIndex + 1)) != -1) {
-							logFeed.append(leftover.substring(oldNewLineIndex, newLineIndex));
-							oldNewLineIndex = newLineIndex;
-						}
-						leftover.delete(0, oldNewLineIndex + 1);
-
-						if (tabs.selected() == logFeed) {
-							logFeed.render();
-							input.updateCursor();
-						}
-					}
-				} catch (Exception e) {
+			}
+
+			@Override
+			public void accept(List<OutputPump.Line> lines) {
+				for (var line : lines) {
+					logFeed.append(line.text());
+				}
+
+				if (tabs.selected() == logFeed) {
+					logFeed.render();
+					input.updateCursor();
 				}
 			}
 		}
@@ -13,6 +13,7 @@ import org.eclipse.jface.text.Document;
 import org.eclipse.text.edits.MalformedTreeException;
 import org.eclipse.text.edits.TextEdit;
 
+import common.BuildHistory;
 import common.DependencyResolution;
 import common.Paths;
 import config.Config;
@@ -137,6 +138,7 @@ public class Format implements Runnable {
 				System.out.println("The following files are not formatted:");
 				changes.forEach(System.out::println);
 				System.out.println("\nCheck failed!");
+				BuildHistory.finish(1);
 				System.exit(1);
 			}
 		} else if (executor.opts.dryRun) {
@@ -4,17 +4,24 @@ import static common.DependencyResolution.mavenDeps;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.WatchEvent;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+import common.BuildHistory;
+import common.ChangeSet;
+import common.ChangeSet.Kind;
+import common.HotSwap;
 import common.JdkResolver;
 import common.Paths;
+import common.Readiness;
 import config.Config;
 import config.ConfigDoc.ConfDependency.Scope;
 import mixins.CommandExecutor;
+import mixins.SwapOptions;
+import picocli.CommandLine.ArgGroup;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
@@ -35,6 +42,17 @@ public class Run implements Runnable {
 	)
 	boolean watch;
 
+	/**
+	 * Compiles the sources to `target/classes` and starts the program with a veles agent. Changes
+	 * are compiled incrementally and method bodies are redefined in the running JVM. The program is
+	 * only restarted when the JVM refuses the change, e.g. when fields or methods are added.
+	 */
+	@Option(
+		names = { "-H", "--hot-swap" },
+		description = { "Redefine changed classes instead of restarting (implies --watch)" }
+	)
+	boolean hotSwap;
+
 	@Option(
 		names = { "-e", "--entrypoint" },
 		description = "Class to use as an entrypoint to the program"
@@ -58,10 +76,18 @@ public class Run implements Runnable {
 	@Option(names = { "-X", "--ignore-depfiles" }, description = { "Ignore .dep files" })
 	boolean ignoreDepfiles;
 
+	@ArgGroup(exclusive = false, heading = "Swap (with --watch):\n")
+	SwapOptions swap = new SwapOptions();
+
 	@Parameters
 	List<String> args = Collections.emptyList();
 
 	public void run() {
+		if (hotSwap) {
+			runHotSwap();
+			return;
+		}
+
 		var entrypoint = Config.getEntrypoint(this.entrypoint);
 		var command = new ArrayList<String>();
 		if (doReach) {
@@ -93,32 +119,202 @@ public class Run implements Runnable {
 		if (!watch) {
 			var code = executor.executeBlocking(command);
 			if (code != 0) {
+				BuildHistory.finish(code);
 				System.exit(code);
 			}
 			return;
 		}
 
-		Paths.watch(Config.sourceDir(), new RunWatchHandler(executor, command));
+		if (swap.enabled) {
+			swap.readiness().check();
+			// output is forwarded by us, so that the readiness probe can see it
+			executor.setQuiet(true);
+		}
+		Paths.watch(new RunWatchHandler(executor, command, swap));
+	}
+
+	private void runHotSwap() {
+		var entrypoint = Config.getEntrypoint(this.entrypoint);
+		var hotSwap = new HotSwap();
+
+		var command = new ArrayList<String>();
+		command.add(JdkResolver.java().toString());
+		command.add(hotSwap.javaagent());
+		if (Config.isPreviewEnabled()) {
+			command.add("--enable-preview");
+		}
+		if (Files.exists(Path.of(".dep.runtime")) && !ignoreDepfiles) {
+			command.add("@.dep.runtime");
+		} else {
+			command.add("-cp");
+			command.add(
+				mavenDeps().add(Scope.COMPILE, Scope.RUNTIME)
+					.classpath()
+					.add(Config.outputClassesDir())
+					.toString()
+			);
+		}
+		command.add(entrypoint.canonicalName());
+		command.addAll(args);
+
+		var compile = new Compile();
+		compile.executor = executor;
+		compile.entrypoint = this.entrypoint;
+		compile.ignoreDepfiles = ignoreDepfiles;
+
+		Paths.watch(new HotSwapWatchHandler(executor, compile, hotSwap, command));
 	}
 
-	public static class RunWatchHandler implements Consumer<List<WatchEvent<Path>>> {
+	public static class RunWatchHandler implements Consumer<ChangeSet> {
 		private final CommandExecutor executor;
 		private final List<String> command;
+		private final SwapOptions swap;
 		private Process managedProcess;
 
-		public RunWatchHandler(CommandExecutor executor, List<String> command) {
+		public RunWatchHandler(CommandExecutor executor, List<String> command, SwapOptions swap) {
 			this.executor = executor;
 			this.command = command;
-			managedProcess = executor.execute(command);
+			this.swap = swap;
+			managedProcess = start();
 		}
 
 		@Override
-		public void accept(List<WatchEvent<Path>> events) {
-			if (managedProcess.isAlive()) {
+		public void accept(ChangeSet changes) {
+			if (onlyTests(changes)) {
+				return;
+			}
+
+			if (!swap.enabled || managedProcess == null || !managedProcess.isAlive()) {
+				if (managedProcess != null && managedProcess.isAlive()) {
+					managedProcess.destroy();
+				}
+
+				managedProcess = start();
+				return;
+			}
+
+			var readiness = swap.readiness();
+			var next = executor.execute(command);
+			if (next == null) {
+				return;
+			}
+			readiness.forward(executor.output(next));
+
+			var status = readiness.await(next);
+			if (status == Readiness.Status.READY) {
 				managedProcess.destroy();
+				managedProcess = next;
+			} else {
+				next.destroy();
+				System.err
+					.println("[veles] New process " + describe(status, next) + ", keeping the old one");
+			}
+		}
+
+		private Process start() {
+			var process = executor.execute(command);
+			if (process != null && swap.enabled) {
+				swap.readiness().forward(executor.output(process));
 			}
 
+			return process;
+		}
+
+		private static String describe(Readiness.Status status, Process process) {
+			if (status == Readiness.Status.EXITED) {
+				return "exited with " + process.exitValue();
+			}
+
+			return "was not ready in time";
+		}
+	}
+
+	public static class HotSwapWatchHandler implements Consumer<ChangeSet> {
+		private final CommandExecutor executor;
+		private final Compile compile;
+		private final HotSwap hotSwap;
+		private final List<String> command;
+		private Process managedProcess;
+
+		public HotSwapWatchHandler(CommandExecutor executor, Compile compile, HotSwap hotSwap,
+			List<String> command) {
+			this.executor = executor;
+			this.compile = compile;
+			this.hotSwap = hotSwap;
+			this.command = command;
+			restart();
+		}
+
+		@Override
+		public void accept(ChangeSet changes) {
+			if (onlyTests(changes)) {
+				return;
+			}
+
+			if (managedProcess == null
+				|| !managedProcess.isAlive()
+				|| changes.has(Kind.CONFIG)
+				|| !changes.deleted(Kind.SOURCE).isEmpty()) {
+				restart();
+				return;
+			}
+
+			Compile.syncResources(
+				changes.paths(Kind.RESOURCE),
+				Config.sourceDir(compile.entrypoint),
+				Config.outputClassesDir()
+			);
+			if (changes.has(Kind.RESOURCE)) {
+				Compile.compressResources();
+			}
+			var before = HotSwap.snapshot(Config.outputClassesDir());
+			if (compile.compileChanged(changes.paths(Kind.SOURCE)) != 0) {
+				BuildHistory.failed(1);
+				System.err.println("[veles] Compilation failed, the program keeps running");
+				return;
+			}
+
+			var after = HotSwap.snapshot(Config.outputClassesDir());
+			var result = hotSwap.redefine(Config.outputClassesDir(), before, after);
+			if (result.swapped()) {
+				System.out.println("[veles] Hot swap: " + result.message());
+			} else {
+				System.out.println("[veles] Restarting, hot swap failed: " + result.message());
+				restart();
+			}
+		}
+
+		/// The program is only stopped once the new classes compiled, otherwise it keeps running
+		private void restart() {
+			var running = managedProcess != null && managedProcess.isAlive();
+			if (compile.compile() != 0) {
+				BuildHistory.failed(1);
+				var kept = running ? ", the program keeps running" : "";
+				System.err.println("[veles] Compilation failed" + kept);
+				return;
+			}
+
+			if (running) {
+				stop(managedProcess);
+			}
 			managedProcess = executor.execute(command);
 		}
+
+		/// The next process listens on the same agent port, so the old one has to be gone first
+		private static void stop(Process process) {
+			process.destroy();
+			try {
+				if (!process.waitFor(5, TimeUnit.SECONDS)) {
+					process.destroyForcibly().waitFor();
+				}
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static boolean onlyTests(ChangeSet changes) {
+		return !changes.has(Kind.SOURCE) && !changes.has(Kind.RESOURCE) && !changes.has(Kind.CONFIG);
 	}
 }
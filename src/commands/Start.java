@@ -2,6 +2,7 @@ package commands;
 
 import static common.DependencyResolution.mavenDeps;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -86,8 +87,16 @@ public class Start implements Runnable {
 	@Parameters
 	public List<String> args = Collections.emptyList();
 
+	/// Copy of the jar or of the classes directory to start from instead of the build output
+	public Path output;
+
 	@Override
 	public void run() {
+		executor.executeBlocking(command());
+	}
+
+	/// @return Command that starts the compiled output, without executing it
+	public List<String> command() {
 		var entrypoint = Config.getEntrypoint(this.entrypoint);
 
 		var command = new ArrayList<String>();
@@ -123,7 +132,9 @@ public class Start implements Runnable {
 				}
 
 				command.add("-jar");
-				if (target.jar) {
+				if (target.jar && output != null) {
+					command.add(output.toString());
+				} else if (target.jar) {
 					command.add(Config.outputDir().resolve(Config.outputJavaJarName()).toString());
 				} else {
 					command.add(Config.outputDir().resolve(Config.outputJavaUberJarName()).toString());
@@ -132,6 +143,8 @@ public class Start implements Runnable {
 				if (target.exploded) {
 					command.add("-cp");
 					command.add(Config.outputExplodedDir().toString());
+				} else if (Files.exists(Path.of(".dep.runtime")) && !ignoreDepfiles && output != null) {
+					command.addAll(depfileWithOutput(Path.of(".dep.runtime")));
 				} else if (Files.exists(Path.of(".dep.runtime")) && !ignoreDepfiles) {
 					command.add("@.dep.runtime");
 				} else {
@@ -139,7 +152,7 @@ public class Start implements Runnable {
 					command.add(
 						mavenDeps().add(Scope.COMPILE, Scope.RUNTIME)
 							.classpath()
-							.add(Config.outputClassesDir())
+							.add(output != null ? output : Config.outputClassesDir())
 							.toString()
 					);
 				}
@@ -153,6 +166,21 @@ public class Start implements Runnable {
 			command.addAll(args);
 		}
 
-		executor.executeBlocking(command);
+		return command;
+	}
+
+	/// Arguments of the depfile, one per line as `veles dep save` writes them, with the classes
+	/// directory replaced by the copy
+	private List<String> depfileWithOutput(Path depfile) {
+		try {
+			return Files.readAllLines(depfile)
+				.stream()
+				.map(String::strip)
+				.filter(line -> !line.isEmpty())
+				.map(line -> line.replace(Config.outputClassesDir().toString(), output.toString()))
+				.toList();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 }
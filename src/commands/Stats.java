@@ -0,0 +1,176 @@
+package commands;
+
+import static java.util.stream.Collectors.groupingBy;
+
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import common.BuildHistory;
+import common.BuildHistory.Entry;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+@Command(
+	name = "stats",
+	description = { "Show how the build times changed over time",
+		"Every veles invocation is recorded in ~/.cache/veles/history" }
+)
+public class Stats implements Runnable {
+	@Option(names = { "-a", "--all" }, description = { "Show all projects, not just this one" })
+	boolean all;
+
+	@Option(names = { "-c", "--command" }, description = { "Only show the given command" })
+	String command;
+
+	@Option(
+		names = { "-w", "--weeks" },
+		description = { "Number of weeks to show the trend for" },
+		defaultValue = "8"
+	)
+	int weeks;
+
+	@Override
+	public void run() {
+		var project = Path.of("").toAbsolutePath();
+		var entries = BuildHistory.load().stream()
+			.filter(e -> all || e.project().equals(project))
+			.filter(e -> command == null || e.command().equals(command))
+			.toList();
+		if (entries.isEmpty()) {
+			System.out.println("[veles] No builds recorded yet");
+			return;
+		}
+
+		var byProject = entries.stream()
+			.collect(groupingBy(Entry::project, TreeMap::new, groupingBy(Entry::command)));
+		byProject.forEach((path, byCommand) -> {
+			System.out.println(path);
+			byCommand.forEach(this::printCommand);
+		});
+	}
+
+	private void printCommand(String name, List<Entry> entries) {
+		var millis = entries.stream().map(Entry::millis).toList();
+		// -1 is an exit without an exit code, e.g. Ctrl-C
+		var failed = entries.stream().filter(e -> e.exitCode() != 0 && e.exitCode() != -1).count();
+		var interrupted = entries.stream().filter(e -> e.exitCode() == -1).count();
+		System.out.printf(
+			"  %s: %d runs, %d failed, %d interrupted, p50 %s, p90 %s, p99 %s, max %s%n",
+			name,
+			entries.size(),
+			failed,
+			interrupted,
+			duration(percentile(millis, 50)),
+			duration(percentile(millis, 90)),
+			duration(percentile(millis, 99)),
+			duration(percentile(millis, 100))
+		);
+
+		printTrend(entries);
+		printSlowestPhases(entries);
+		printCounters(entries);
+	}
+
+	/// Median per week, so that a few cold builds do not hide the trend
+	private void printTrend(List<Entry> entries) {
+		var zone = ZoneId.systemDefault();
+		var thisWeek = LocalDate.now(zone).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+		var byWeek = new TreeMap<LocalDate, List<Long>>();
+		for (var entry : entries) {
+			var week = LocalDate.ofInstant(Instant.ofEpochMilli(entry.time()), zone)
+				.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+			if (!week.isBefore(thisWeek.minusWeeks(weeks - 1))) {
+				byWeek.computeIfAbsent(week, _ -> new ArrayList<>()).add(entry.millis());
+			}
+		}
+		if (byWeek.size() < 2) {
+			return;
+		}
+
+		System.out.println("    trend (median per week):");
+		Long previous = null;
+		for (var week : byWeek.entrySet()) {
+			var median = percentile(week.getValue(), 50);
+			var change = previous == null || previous == 0
+				? ""
+				: " %+d%%".formatted(Math.round((median - previous) * 100.0 / previous));
+			System.out.printf(
+				"      %s %10s (%d runs)%s%n",
+				week.getKey(),
+				duration(median),
+				week.getValue().size(),
+				change
+			);
+			previous = median;
+		}
+	}
+
+	private void printSlowestPhases(List<Entry> entries) {
+		var byPhase = new LinkedHashMap<String, List<Long>>();
+		for (var entry : entries) {
+			entry.phases().forEach((phase, took) -> {
+				byPhase.computeIfAbsent(phase, _ -> new ArrayList<>()).add(took);
+			});
+		}
+		if (byPhase.isEmpty()) {
+			return;
+		}
+
+		System.out.println("    slowest steps:");
+		byPhase.entrySet().stream()
+			.sorted(Comparator.comparingLong(e -> -percentile(e.getValue(), 90)))
+			.limit(5)
+			.forEach(e -> System.out.printf(
+				"      %-20s p50 %10s, p90 %10s%n",
+				e.getKey(),
+				duration(percentile(e.getValue(), 50)),
+				duration(percentile(e.getValue(), 90))
+			));
+	}
+
+	private void printCounters(List<Entry> entries) {
+		var totals = new TreeMap<String, Long>();
+		var runs = new HashMap<String, Integer>();
+		for (var entry : entries) {
+			entry.counters().forEach((counter, value) -> {
+				totals.merge(counter, value, Long::sum);
+				runs.merge(counter, 1, Integer::sum);
+			});
+		}
+		if (totals.isEmpty()) {
+			return;
+		}
+
+		var averages = new ArrayList<String>();
+		totals.forEach((counter, total) -> {
+			averages.add("%s %d".formatted(counter, Math.round((double) total / runs.get(counter))));
+		});
+		System.out.println("    average per run: " + String.join(", ", averages));
+	}
+
+	/// Nearest rank percentile
+	private static long percentile(List<Long> values, int percentile) {
+		var sorted = values.stream().sorted().toList();
+		var rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+		return sorted.get(Math.max(0, rank - 1));
+	}
+
+	private static String duration(long millis) {
+		if (millis < 1000) {
+			return millis + " ms";
+		}
+
+		return "%.1f s".formatted(millis / 1000.0);
+	}
+}
@@ -0,0 +1,58 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import config.Config;
+
+/**
+ * Packages the helper classes from the `agent` package into a jar, that can be put on the
+ * classpath, attached as a `-javaagent` of the programs veles starts or loaded as a javac plugin.
+ * The classes are read from veles' own classpath, so the jar always matches the running veles
+ * version.
+ */
+public class AgentJar {
+	private static final List<String> classes = List.of(
+		"agent.HotSwapAgent",
+		"agent.RestartLauncher",
+		"agent.CompileProfiler",
+		"agent.ToolWorker",
+		"agent.WorkerOutput"
+	);
+	private static Path jar;
+
+	public static Path path() {
+		if (jar == null) {
+			jar = Config.outputVelesDir().resolve("veles-agent.jar").toAbsolutePath();
+			Paths.ensureDirExists(jar.getParent());
+			try (var zip = new Zip(jar.toString())) {
+				zip.add("META-INF/MANIFEST.MF", """
+					Manifest-Version: 1.0
+					Premain-Class: agent.HotSwapAgent
+					Can-Redefine-Classes: true
+					Can-Retransform-Classes: true
+					""");
+				zip.add("META-INF/services/com.sun.source.util.Plugin", "agent.CompileProfiler\n");
+				for (var className : classes) {
+					var entry = className.replace('.', '/') + ".class";
+					zip.add(entry, readClass(entry));
+				}
+			}
+		}
+
+		return jar;
+	}
+
+	private static byte[] readClass(String entry) {
+		try (var in = AgentJar.class.getResourceAsStream("/" + entry)) {
+			if (in == null) {
+				throw new RuntimeException("Veles is missing " + entry + ", was it built correctly?");
+			}
+
+			return in.readAllBytes();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
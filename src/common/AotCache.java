@@ -0,0 +1,214 @@
+package common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import config.Config;
+
+/**
+ * AOT caches ([JEP 483](https://openjdk.org/jeps/483)) of the short lived JDK tools veles starts,
+ * kept in `~/.cache/veles/aot` and shared by all the projects. The first run of a tool trains the
+ * cache with `-XX:AOTCacheOutput`, which makes that run a few seconds longer, the later runs start
+ * from it. A cache is keyed by the JDK build and the classpath of the tool, so a JDK update or
+ * another version of the tool trains a new one.
+ *
+ * Training in a single run needs JDK 25. Classes loaded from directories can not be cached, so the
+ * tools that have the project classes on their classpath are not covered.
+ */
+public class AotCache {
+	private static final Path dir = Path
+		.of(System.getProperty("user.home"), ".cache", "veles", "aot");
+	/// A training run that did not produce the cache (e.g. crashed) is retried after this long
+	private static final Duration retryTraining = Duration.ofHours(1);
+	/// Caches that were not used for this long are deleted
+	private static final Duration unused = Duration.ofDays(30);
+	private static final Map<Path, Properties> releases = new HashMap<>();
+	private static final String trainingOption = "-XX:AOTCacheOutput=";
+
+	/**
+	 * @param launcher  Executable that starts the tool, `java` or a JDK tool like `javac`, whose
+	 *                  options then have to be passed with `-J`
+	 * @param tool      Name of the tool, the caches are named after it
+	 * @param classpath Jars on the classpath of the tool
+	 * @return JVM options that use or train the cache, empty when the JDK is older than 25, unknown
+	 *         or the caches are disabled
+	 */
+	public static synchronized List<String> options(Path launcher, String tool,
+		List<String> classpath) {
+		if (!Config.toolAotCaches() || !launcher.isAbsolute() || launcher.getParent() == null) {
+			return List.of();
+		}
+		var home = launcher.getParent().getParent();
+		var release = release(home);
+		if (feature(release.getProperty("JAVA_VERSION", "")) < 25) {
+			return List.of();
+		}
+
+		try {
+			var key = key(home, release, classpath);
+			if (key == null) {
+				return List.of();
+			}
+			var cache = dir.resolve(tool + "-" + key + ".aot");
+			if (Files.exists(cache)) {
+				touch(cache);
+				return List.of("-XX:AOTCache=" + cache);
+			}
+			if (isTraining(cache)) {
+				return List.of();
+			}
+
+			// claimed once the command starts, see claim
+			return List.of(trainingOption + cache);
+		} catch (IOException e) {
+			// no cache is just slower
+			return List.of();
+		}
+	}
+
+	/**
+	 * Claim the training of the caches the command trains, called right before it starts. A
+	 * command that is only built (e.g. with `--dry-run`) never claims the training, so it doesn't
+	 * block it for the others.
+	 *
+	 * @return Command without the training options of the caches another run is already training
+	 */
+	public static synchronized List<String> claim(List<String> command) {
+		var prefix = trainingOption + dir;
+		if (command.stream().noneMatch(arg -> arg.contains(prefix))) {
+			return command;
+		}
+
+		var claimed = new ArrayList<String>();
+		for (var arg : command) {
+			var at = arg.indexOf(prefix);
+			if (at == -1) {
+				claimed.add(arg);
+				continue;
+			}
+
+			var cache = Path.of(arg.substring(at + trainingOption.length()));
+			try {
+				Files.createDirectories(dir);
+				var training = dir.resolve(cache.getFileName() + ".training");
+				try {
+					Files.createFile(training);
+				} catch (FileAlreadyExistsException e) {
+					if (isTraining(cache)) {
+						continue;
+					}
+					Files.setLastModifiedTime(training, FileTime.from(Instant.now()));
+				}
+				deleteUnused();
+			} catch (IOException e) {
+				continue;
+			}
+
+			var tool = cache.getFileName().toString().replaceAll("-[0-9a-f]+\\.aot$", "");
+			System.out.println("[veles] Training the AOT cache of " + tool + ", this run takes longer");
+			claimed.add(arg);
+		}
+
+		return claimed;
+	}
+
+	/// Whether another run is training the cache, or tried to recently and failed
+	private static boolean isTraining(Path cache) throws IOException {
+		var training = dir.resolve(cache.getFileName() + ".training");
+		if (!Files.exists(training)) {
+			return false;
+		}
+
+		var since = Files.getLastModifiedTime(training).toInstant();
+		return since.isAfter(Instant.now().minus(retryTraining));
+	}
+
+	/// Options of {@link #options(Path, String, List)}, prefixed with `-J` for JDK tool launchers
+	public static List<String> launcherOptions(Path launcher, String tool) {
+		return options(launcher, tool, List.of()).stream().map(option -> "-J" + option).toList();
+	}
+
+	/// @return Hash of the JDK build and the classpath, null when the classpath has directories
+	private static String key(Path home, Properties release, List<String> classpath)
+		throws IOException {
+		try {
+			var digest = MessageDigest.getInstance("SHA-256");
+			digest.update(home.toAbsolutePath().toString().getBytes(UTF_8));
+			digest.update(release.getProperty("IMPLEMENTOR", "").getBytes(UTF_8));
+			digest.update(release.getProperty("JAVA_RUNTIME_VERSION", "").getBytes(UTF_8));
+			for (var entry : classpath) {
+				var path = Path.of(entry);
+				if (Files.isDirectory(path)) {
+					return null;
+				}
+				digest.update(("\0" + path.toAbsolutePath()).getBytes(UTF_8));
+				if (Files.exists(path)) {
+					var jar = path.toAbsolutePath() + ":" + Files.size(path) + ":"
+						+ Files.getLastModifiedTime(path).toMillis();
+					digest.update(jar.getBytes(UTF_8));
+				}
+			}
+
+			return HexFormat.of().formatHex(digest.digest()).substring(0, 16);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// The `release` file of the JDK, with the quotes of the values removed
+	private static Properties release(Path home) {
+		return releases.computeIfAbsent(home, _ -> {
+			var release = new Properties();
+			try (var reader = Files.newBufferedReader(home.resolve("release"))) {
+				release.load(reader);
+			} catch (IOException e) {
+				return release;
+			}
+			release.replaceAll((_, value) -> value.toString().replace("\"", ""));
+			return release;
+		});
+	}
+
+	/// @return Feature version of `25.0.1` or `25-ea`, 0 when unknown
+	private static int feature(String version) {
+		try {
+			return Integer.parseInt(version.split("[.+-]")[0]);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/// Mark the file as used, at most once a day
+	private static void touch(Path file) throws IOException {
+		var now = Instant.now();
+		if (Files.getLastModifiedTime(file).toInstant().isBefore(now.minus(Duration.ofDays(1)))) {
+			Files.setLastModifiedTime(file, FileTime.from(now));
+		}
+	}
+
+	private static void deleteUnused() throws IOException {
+		var before = Instant.now().minus(unused);
+		try (var files = Files.list(dir)) {
+			for (var file : files.toList()) {
+				if (Files.getLastModifiedTime(file).toInstant().isBefore(before)) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+}
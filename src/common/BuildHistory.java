@@ -0,0 +1,285 @@
+package common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Local history of veles invocations, used by `veles stats` to show whether builds are getting
+ * slower. Every invocation appends one line with the command, the project, the exit code, the
+ * total time, the time of every build step and counters like the number of dependencies or cache
+ * hits.
+ *
+ * A watch session (`--watch` or `dev`) is recorded as the entry of its first build, followed by an
+ * entry per rebuild, named after the command with ` rebuild` appended. The session itself is not
+ * recorded, its length is how long the user kept it open.
+ *
+ * The history lives in `~/.cache/veles/history` and is shared by all the projects. Once the
+ * current file grows over {@link #maxFileSize}, it is rotated, and only {@link #keptFiles} files
+ * are kept, so the history stays bounded. Failing to record the history never fails the build.
+ */
+public class BuildHistory {
+	static final long maxFileSize = 1024 * 1024;
+	static final int keptFiles = 4;
+	private static final String version = "v1";
+
+	private static Path dir = Path.of(System.getProperty("user.home"), ".cache", "veles", "history");
+	private static final Map<String, Long> phases = new LinkedHashMap<>();
+	private static final Map<String, Long> counters = new LinkedHashMap<>();
+	private static String command;
+	private static String args;
+	private static long started;
+	private static boolean finished;
+	private static boolean watching;
+	/// Exit code of a failure that did not end the invocation, e.g. a failed rebuild
+	private static int failure;
+
+	/**
+	 * @param time     When the invocation started, in epoch millis
+	 * @param project  Absolute path of the project directory
+	 * @param command  Name of the veles command
+	 * @param args     Arguments veles was invoked with
+	 * @param exitCode Exit code, -1 when veles exited without reporting one (e.g. Ctrl-C)
+	 * @param millis   Wall time of the whole invocation
+	 * @param phases   Wall time of every step, in the order they ran
+	 * @param counters Sizes and cache hits, see {@link #count(String, long)}
+	 */
+	public record Entry(long time, Path project, String command, String args, int exitCode,
+		long millis, Map<String, Long> phases, Map<String, Long> counters) {
+	}
+
+	/// Start recording the invocation, it is written when {@link #finish(int)} is called or on exit
+	public static synchronized void start(String name, List<String> arguments) {
+		if (command != null) {
+			return;
+		}
+
+		command = name;
+		args = String.join(" ", arguments);
+		started = System.currentTimeMillis();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> finish(-1), "veles-history"));
+	}
+
+	public static synchronized void phase(String name, long millis) {
+		phases.merge(name, millis, Long::sum);
+	}
+
+	/// Add to a counter, e.g. `processors hit` or `resources copied`
+	public static synchronized void count(String name, long n) {
+		counters.merge(name, n, Long::sum);
+	}
+
+	/// Keep the largest value seen for a size, e.g. `deps` or `sources`
+	public static synchronized void max(String name, long value) {
+		counters.merge(name, value, Math::max);
+	}
+
+	/// Record a failure that does not end the invocation, its code is recorded unless the
+	/// invocation (or the rebuild) ends with another failure
+	public static synchronized void failed(int exitCode) {
+		if (failure == 0) {
+			failure = exitCode;
+		}
+	}
+
+	public static synchronized void finish(int exitCode) {
+		if (command == null || finished) {
+			return;
+		}
+
+		finished = true;
+		if (!watching) {
+			record(command, exitCode);
+		}
+	}
+
+	/// The first build of a watch session is done, it is recorded as an entry of its own
+	public static synchronized void watching() {
+		if (command == null || watching) {
+			return;
+		}
+
+		watching = true;
+		if (!phases.isEmpty()) {
+			record(command, 0);
+		}
+		reset();
+	}
+
+	/// A rebuild of a watch session starts, whatever was recorded since the last one is dropped
+	public static synchronized void rebuilding() {
+		reset();
+	}
+
+	/// The rebuild of a watch session is done
+	public static synchronized void rebuilt(int exitCode) {
+		if (command == null || !watching || finished) {
+			return;
+		}
+
+		record(command + " rebuild", exitCode);
+		reset();
+	}
+
+	private static void record(String name, int exitCode) {
+		var entry = new Entry(
+			started,
+			Path.of("").toAbsolutePath(),
+			name,
+			args,
+			exitCode != 0 ? exitCode : failure,
+			System.currentTimeMillis() - started,
+			new LinkedHashMap<>(phases),
+			new LinkedHashMap<>(counters)
+		);
+		try {
+			append(entry);
+		} catch (IOException | RuntimeException e) {
+			// the history is a nice to have, the build result matters more
+		}
+	}
+
+	private static void reset() {
+		started = System.currentTimeMillis();
+		phases.clear();
+		counters.clear();
+		failure = 0;
+	}
+
+	/// @return Entries of all the kept files, oldest first
+	public static List<Entry> load() {
+		var entries = new ArrayList<Entry>();
+		for (int i = keptFiles - 1; i >= 0; i--) {
+			try (BufferedReader reader = Files.newBufferedReader(file(i))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					var entry = parse(line);
+					if (entry != null) {
+						entries.add(entry);
+					}
+				}
+			} catch (NoSuchFileException e) {
+				// not rotated that many times yet
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		return entries;
+	}
+
+	/// Only for tests
+	static void useDir(Path historyDir) {
+		dir = historyDir;
+	}
+
+	static void append(Entry entry) throws IOException {
+		Files.createDirectories(dir);
+		var line = format(entry) + "\n";
+		// other veles processes might be appending or rotating at the same time
+		try (var lock = FileChannel.open(
+			dir.resolve("history.lock"),
+			StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE
+		); var _ = lock.lock()) {
+			var current = file(0);
+			if (Files.exists(current) && Files.size(current) + line.length() > maxFileSize) {
+				rotate();
+			}
+			Files.writeString(
+				current,
+				line,
+				StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND
+			);
+		}
+	}
+
+	private static void rotate() throws IOException {
+		Files.deleteIfExists(file(keptFiles - 1));
+		for (int i = keptFiles - 2; i >= 0; i--) {
+			if (Files.exists(file(i))) {
+				Files.move(file(i), file(i + 1), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+
+	private static Path file(int generation) {
+		return dir.resolve(generation == 0 ? "history.log" : "history." + generation + ".log");
+	}
+
+	/// Format: `v1 <time> <project> <command> <exit code> <millis> <phases> <counters> <args>`
+	/// separated by tabs, phases and counters are `name=value` pairs separated by commas
+	private static String format(Entry entry) {
+		return String.join(
+			"\t",
+			version,
+			String.valueOf(entry.time()),
+			clean(entry.project().toString()),
+			clean(entry.command()),
+			String.valueOf(entry.exitCode()),
+			String.valueOf(entry.millis()),
+			formatMap(entry.phases()),
+			formatMap(entry.counters()),
+			clean(entry.args())
+		);
+	}
+
+	private static Entry parse(String line) {
+		var parts = line.split("\t", -1);
+		if (parts.length != 9 || !version.equals(parts[0])) {
+			return null;
+		}
+
+		try {
+			return new Entry(
+				Long.parseLong(parts[1]),
+				Path.of(parts[2]),
+				parts[3],
+				parts[8],
+				Integer.parseInt(parts[4]),
+				Long.parseLong(parts[5]),
+				parseMap(parts[6]),
+				parseMap(parts[7])
+			);
+		} catch (RuntimeException e) {
+			// torn or corrupted line, skip it
+			return null;
+		}
+	}
+
+	private static String formatMap(Map<String, Long> map) {
+		return map.entrySet().stream()
+			.map(e -> clean(e.getKey()).replace(',', ' ').replace('=', ' ') + "=" + e.getValue())
+			.collect(Collectors.joining(","));
+	}
+
+	private static Map<String, Long> parseMap(String value) {
+		var map = new LinkedHashMap<String, Long>();
+		if (value.isEmpty()) {
+			return map;
+		}
+
+		for (var pair : value.split(",")) {
+			var at = pair.lastIndexOf('=');
+			map.put(pair.substring(0, at), Long.parseLong(pair.substring(at + 1)));
+		}
+		return map;
+	}
+
+	private static String clean(String value) {
+		return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+}
@@ -0,0 +1,94 @@
+package common;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import config.Config;
+
+/**
+ * Deduplicated set of changed project files, classified by what they mean for the build, so
+ * that watch handlers can do as little work as possible. Paths are relative to the project root.
+ */
+public class ChangeSet {
+	private final Map<Path, Kind> changes = new LinkedHashMap<>();
+
+	public enum Kind {
+		SOURCE,
+		RESOURCE,
+		TEST,
+		CONFIG
+	}
+
+	private static final Set<String> configFiles = Set
+		.of("veles.yaml", ".dep.compile", ".dep.testcomp", ".dep.test", ".dep.runtime", ".dep.nocomp");
+
+	/// @return Kind of the file or null if the file is not relevant for the build
+	public static Kind classify(Path relative) {
+		if (relative.getNameCount() == 1 && configFiles.contains(relative.toString())) {
+			return Kind.CONFIG;
+		}
+		if (isInside(relative, Config.testDir())) {
+			return Kind.TEST;
+		}
+		if (isInside(relative, Config.sourceDir())) {
+			return relative.toString().endsWith(".java") ? Kind.SOURCE : Kind.RESOURCE;
+		}
+
+		return null;
+	}
+
+	private static boolean isInside(Path relative, Path dir) {
+		return dir.toString().isEmpty() || relative.startsWith(dir);
+	}
+
+	public void add(Path relative) {
+		var kind = classify(relative);
+		if (kind != null) {
+			changes.put(relative, kind);
+		}
+	}
+
+	public void addAll(ChangeSet other) {
+		changes.putAll(other.changes);
+	}
+
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	public boolean has(Kind kind) {
+		return changes.containsValue(kind);
+	}
+
+	public List<Path> paths(Kind kind) {
+		return changes.entrySet()
+			.stream()
+			.filter(e -> e.getValue() == kind)
+			.map(Map.Entry::getKey)
+			.toList();
+	}
+
+	/// @return Changed paths of the given kind that no longer exist
+	public List<Path> deleted(Kind kind) {
+		return paths(kind).stream().filter(p -> !Files.exists(p)).toList();
+	}
+
+	public ChangeSet copy() {
+		var copy = new ChangeSet();
+		copy.addAll(this);
+		return copy;
+	}
+
+	public void clear() {
+		changes.clear();
+	}
+
+	@Override
+	public String toString() {
+		return changes.toString();
+	}
+}
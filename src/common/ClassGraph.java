@@ -0,0 +1,398 @@
+package common;
+
+import java.io.IOException;
+import java.lang.classfile.Annotation;
+import java.lang.classfile.AnnotationValue;
+import java.lang.classfile.AttributedElement;
+import java.lang.classfile.Attributes;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.constantpool.ClassEntry;
+import java.lang.classfile.constantpool.Utf8Entry;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Class level dependency graph read from compiled class files. A class depends on every class
+ * that appears in its constant pool, either as a class reference or inside a descriptor or a
+ * generic signature.
+ *
+ * Every class also gets a fingerprint of its ABI, i.e. everything other classes can compile
+ * against: the signatures, flags, constants and annotations of the class and its non-private
+ * members. Method bodies are not part of it, so dependents only need to be recompiled when the
+ * ABI of a class they reference changes. Inherited members are part of the ABI of the subtypes
+ * as well, a call to `sub.m()` only references `Sub` even if `m` is declared in `Base`, so the
+ * subtypes of a class whose ABI changed count as changed too.
+ *
+ * Class names are binary names (`pkg.Outer$Inner`).
+ */
+public class ClassGraph {
+	private static final Pattern descriptorClass = Pattern.compile("L([\\w/$]+)[;<]");
+
+	private final Map<Path, Path> roots = new LinkedHashMap<>();
+	private final Map<String, Node> nodes = new HashMap<>();
+	private Set<String> abiChanged = new HashSet<>();
+
+	/// @param supertypes Superclass and interfaces of the class
+	public record Node(String name, Path root, Path file, FileTime modified, Path source,
+		Set<String> references, Set<String> supertypes, String abi) {
+	}
+
+	/**
+	 * @param classesDir Directory with class files
+	 * @param sourceDir  Directory with the sources the classes were compiled from
+	 */
+	public ClassGraph add(Path classesDir, Path sourceDir) {
+		roots.put(classesDir, sourceDir);
+		return this;
+	}
+
+	/**
+	 * Read class files that were added or modified since the last refresh and drop the ones that
+	 * were deleted.
+	 *
+	 * @return Names of the classes that were added, modified or removed
+	 */
+	public Set<String> refresh() {
+		var changed = new HashSet<String>();
+		var abiChanged = new HashSet<String>();
+		var seen = new HashSet<String>();
+		roots.forEach((root, sourceDir) -> {
+			if (!Files.exists(root)) {
+				return;
+			}
+
+			try (var files = Files.walk(root)) {
+				files.filter(f -> f.toString().endsWith(".class")).forEach(file -> {
+					var name = className(root.relativize(file));
+					seen.add(name);
+					try {
+						var modified = Files.getLastModifiedTime(file);
+						var node = nodes.get(name);
+						if (node == null || !node.modified().equals(modified)) {
+							var read = read(root, sourceDir, file, modified);
+							nodes.put(name, read);
+							changed.add(name);
+							if (node == null || !node.abi().equals(read.abi())) {
+								abiChanged.add(name);
+							}
+						}
+					} catch (IOException | IllegalArgumentException e) {
+						// deleted while walking or not a valid class file
+					}
+				});
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+
+		nodes.keySet().removeIf(name -> {
+			if (!seen.contains(name)) {
+				changed.add(name);
+				abiChanged.add(name);
+				return true;
+			}
+			return false;
+		});
+		abiChanged.addAll(subtypes(abiChanged));
+		this.abiChanged = abiChanged;
+
+		return changed;
+	}
+
+	/// @return Classes that were added, removed or whose ABI changed in the last refresh, including
+	///         the subtypes of the ones whose ABI changed
+	public Set<String> abiChanged() {
+		return abiChanged;
+	}
+
+	/// @return ABI fingerprints of the classes in the directory
+	public Map<String, String> abis(Path classesDir) {
+		var abis = new HashMap<String, String>();
+		nodes.values()
+			.stream()
+			.filter(n -> n.root().equals(classesDir))
+			.forEach(n -> abis.put(n.name(), n.abi()));
+		return abis;
+	}
+
+	public Node get(String className) {
+		return nodes.get(className);
+	}
+
+	public Set<String> classes(Path classesDir) {
+		var classes = new HashSet<String>();
+		nodes.values()
+			.stream()
+			.filter(n -> n.root().equals(classesDir))
+			.forEach(n -> classes.add(n.name()));
+		return classes;
+	}
+
+	/// @return Classes that were compiled from the source file
+	public Set<String> classesOf(Path source) {
+		var classes = new HashSet<String>();
+		nodes.values()
+			.stream()
+			.filter(n -> source.equals(n.source()))
+			.forEach(n -> classes.add(n.name()));
+		return classes;
+	}
+
+	/// @return Classes that reference any of the given classes, directly or through other classes
+	public Set<String> dependents(Set<String> classes, boolean transitive) {
+		var reverse = new HashMap<String, Set<String>>();
+		nodes.values().forEach(n -> n.references().forEach(r -> {
+			if (!r.equals(n.name())) {
+				reverse.computeIfAbsent(r, _ -> new HashSet<>()).add(n.name());
+			}
+		}));
+
+		var dependents = new HashSet<String>();
+		var queue = new ArrayDeque<>(classes);
+		while (!queue.isEmpty()) {
+			for (var dependent : reverse.getOrDefault(queue.poll(), Set.of())) {
+				if (dependents.add(dependent) && transitive) {
+					queue.add(dependent);
+				}
+			}
+		}
+		dependents.removeAll(classes);
+
+		return dependents;
+	}
+
+	/// @return Classes that extend or implement any of the given classes, directly or indirectly
+	public Set<String> subtypes(Set<String> classes) {
+		var reverse = new HashMap<String, Set<String>>();
+		nodes.values().forEach(n -> n.supertypes().forEach(s -> {
+			reverse.computeIfAbsent(s, _ -> new HashSet<>()).add(n.name());
+		}));
+
+		var subtypes = new HashSet<String>();
+		var queue = new ArrayDeque<>(classes);
+		while (!queue.isEmpty()) {
+			for (var subtype : reverse.getOrDefault(queue.poll(), Set.of())) {
+				if (subtypes.add(subtype)) {
+					queue.add(subtype);
+				}
+			}
+		}
+		subtypes.removeAll(classes);
+
+		return subtypes;
+	}
+
+	/// @return Name of the top level class, which is what test engines can select
+	public static String topLevel(String className) {
+		var nested = className.indexOf('$');
+		return nested == -1 ? className : className.substring(0, nested);
+	}
+
+	private static Node read(Path root, Path sourceDir, Path file, FileTime modified)
+		throws IOException {
+		ClassModel model = ClassFile.of().parse(file);
+
+		var references = new HashSet<String>();
+		for (var entry : model.constantPool()) {
+			if (entry instanceof ClassEntry c) {
+				var name = c.asInternalName();
+				if (!name.startsWith("[")) {
+					references.add(name.replace('/', '.'));
+				}
+			}
+			if (entry instanceof Utf8Entry utf8) {
+				var matcher = descriptorClass.matcher(utf8.stringValue());
+				while (matcher.find()) {
+					references.add(matcher.group(1).replace('/', '.'));
+				}
+			}
+		}
+
+		var name = model.thisClass().asInternalName();
+		var packageDir = name.contains("/") ? name.substring(0, name.lastIndexOf('/')) : "";
+		var source = model.findAttribute(Attributes.sourceFile())
+			.map(a -> sourceDir.resolve(packageDir).resolve(a.sourceFile().stringValue()).normalize())
+			.orElse(null);
+
+		var supertypes = new HashSet<String>();
+		model.superclass().ifPresent(c -> supertypes.add(c.asInternalName().replace('/', '.')));
+		model.interfaces().forEach(i -> supertypes.add(i.asInternalName().replace('/', '.')));
+
+		return new Node(
+			name.replace('/', '.'),
+			root,
+			file,
+			modified,
+			source,
+			references,
+			supertypes,
+			abi(model)
+		);
+	}
+
+	/// @return ABI fingerprints stored with {@link #storeAbis(Path, Map)} or null if there are none
+	public static Map<String, String> loadAbis(Path file) {
+		try {
+			var abis = new HashMap<String, String>();
+			for (var line : Files.readAllLines(file)) {
+				var parts = line.split(" ", 2);
+				abis.put(parts[1], parts[0]);
+			}
+			return abis;
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/// Format: `<abi> <class>` per class
+	public static void storeAbis(Path file, Map<String, String> abis) {
+		try {
+			Files.createDirectories(file.getParent());
+			var lines = abis.entrySet().stream().map(e -> e.getValue() + " " + e.getKey()).toList();
+			Files.write(file, lines);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// SHA-256 of the sorted ABI elements of the class, see the class documentation
+	static String abi(ClassModel model) {
+		var elements = new ArrayList<String>();
+		var name = model.thisClass().asInternalName();
+		elements.add("class %d %s".formatted(model.flags().flagsMask(), name));
+		model.superclass().ifPresent(s -> elements.add("extends " + s.asInternalName()));
+		model.interfaces().forEach(i -> elements.add("implements " + i.asInternalName()));
+		elements.add("attributes " + attributes(model));
+
+		for (var field : model.fields()) {
+			if ((field.flags().flagsMask() & ClassFile.ACC_PRIVATE) != 0) {
+				continue;
+			}
+			var constant = field.findAttribute(Attributes.constantValue())
+				.map(c -> " = " + c.constant().constantValue())
+				.orElse("");
+			elements.add(
+				"field %d %s %s%s %s".formatted(
+					field.flags().flagsMask(),
+					field.fieldName().stringValue(),
+					field.fieldType().stringValue(),
+					constant,
+					attributes(field)
+				)
+			);
+		}
+
+		for (var method : model.methods()) {
+			if ((method.flags().flagsMask() & ClassFile.ACC_PRIVATE) != 0) {
+				continue;
+			}
+			var exceptions = method.findAttribute(Attributes.exceptions())
+				.map(e -> e.exceptions().stream().map(ClassEntry::asInternalName).sorted().toList())
+				.orElse(List.of());
+			var parameterAnnotations = method
+				.findAttribute(Attributes.runtimeVisibleParameterAnnotations())
+				.map(a -> a.parameterAnnotations().stream().map(ClassGraph::render).toList())
+				.orElse(List.of());
+			var annotationDefault = method.findAttribute(Attributes.annotationDefault())
+				.map(a -> render(a.defaultValue()))
+				.orElse("");
+			elements.add(
+				"method %d %s %s throws %s %s %s %s".formatted(
+					method.flags().flagsMask(),
+					method.methodName().stringValue(),
+					method.methodType().stringValue(),
+					exceptions,
+					parameterAnnotations,
+					annotationDefault,
+					attributes(method)
+				)
+			);
+		}
+
+		model.findAttribute(Attributes.innerClasses()).ifPresent(inner -> inner.classes().forEach(i -> {
+			if ((i.flagsMask() & ClassFile.ACC_PRIVATE) == 0) {
+				elements.add("inner %d %s".formatted(i.flagsMask(), i.innerClass().asInternalName()));
+			}
+		}));
+		model.findAttribute(Attributes.permittedSubclasses())
+			.ifPresent(p -> p.permittedSubclasses()
+				.forEach(c -> elements.add("permits " + c.asInternalName())));
+		model.findAttribute(Attributes.record())
+			.ifPresent(r -> r.components()
+				.forEach(c -> elements.add(
+					"component %s %s".formatted(c.name().stringValue(), c.descriptor().stringValue())
+				)));
+
+		Collections.sort(elements);
+		try {
+			var digest = MessageDigest.getInstance("SHA-256");
+			elements.forEach(e -> digest.update((e + "\n").getBytes(StandardCharsets.UTF_8)));
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// Generic signature and annotations, which are part of the ABI of classes and members
+	private static String attributes(AttributedElement element) {
+		var signature = element.findAttribute(Attributes.signature())
+			.map(s -> s.signature().stringValue())
+			.orElse("");
+		var visible = element.findAttribute(Attributes.runtimeVisibleAnnotations())
+			.map(a -> render(a.annotations()))
+			.orElse("");
+		var invisible = element.findAttribute(Attributes.runtimeInvisibleAnnotations())
+			.map(a -> render(a.annotations()))
+			.orElse("");
+		return signature + " " + visible + " " + invisible;
+	}
+
+	private static String render(List<Annotation> annotations) {
+		return annotations.stream().map(ClassGraph::render).collect(Collectors.joining(",", "[", "]"));
+	}
+
+	private static String render(Annotation annotation) {
+		return annotation.className().stringValue()
+			+ annotation.elements()
+				.stream()
+				.map(e -> e.name().stringValue() + "=" + render(e.value()))
+				.collect(Collectors.joining(",", "(", ")"));
+	}
+
+	private static String render(AnnotationValue value) {
+		return switch (value) {
+			case AnnotationValue.OfConstant c -> String.valueOf(c.constant().constantValue());
+			case AnnotationValue.OfEnum e -> e.className().stringValue() + "."
+				+ e.constantName().stringValue();
+			case AnnotationValue.OfClass c -> c.className().stringValue();
+			case AnnotationValue.OfAnnotation a -> render(a.annotation());
+			case AnnotationValue.OfArray a -> a.values()
+				.stream()
+				.map(ClassGraph::render)
+				.collect(Collectors.joining(",", "[", "]"));
+		};
+	}
+
+	static String className(Path relativeClassFile) {
+		var name = relativeClassFile.toString();
+		var separator = relativeClassFile.getFileSystem().getSeparator();
+		return name.substring(0, name.length() - ".class".length()).replace(separator, ".");
+	}
+}
@@ -59,7 +59,8 @@ public class DependencyResolution {
 
 	private static Stream<Artifact> resolve(Stream<ConfDependency> confDependencies) {
 		var contextOverrides = ContextOverrides.create().withUserSettings(true).build();
-		try (Context ctx = Runtimes.INSTANCE.getRuntime().create(contextOverrides)) {
+		try (var span = Trace.span("deps", "resolve dependencies");
+			Context ctx = Runtimes.INSTANCE.getRuntime().create(contextOverrides)) {
 			var system = ctx.repositorySystem();
 			var session = (DefaultRepositorySystemSession) ctx.repositorySystemSession();
 			session.setSystemProperty("aether.dependencyCollector.impl", "bf");
@@ -72,10 +73,10 @@ public class DependencyResolution {
 				.setRepositories(ctx.remoteRepositories());
 			DependencyRequest req = new DependencyRequest().setCollectRequest(collectRequest);
 
-			return system.resolveDependencies(session, req)
-				.getArtifactResults()
-				.stream()
-				.map(ArtifactResult::getArtifact);
+			var artifacts = system.resolveDependencies(session, req).getArtifactResults();
+			span.arg("declared", dependencies.size()).arg("resolved", artifacts.size());
+			BuildHistory.max("deps", artifacts.size());
+			return artifacts.stream().map(ArtifactResult::getArtifact);
 		} catch (DependencyResolutionException e) {
 			throw new RuntimeException(e);
 		}
@@ -83,7 +84,8 @@ public class DependencyResolution {
 
 	public static Stream<String> resolve(String coords) {
 		var contextOverrides = ContextOverrides.create().withUserSettings(true).build();
-		try (Context ctx = Runtimes.INSTANCE.getRuntime().create(contextOverrides)) {
+		try (var _ = Trace.span("deps", "resolve " + coords);
+			Context ctx = Runtimes.INSTANCE.getRuntime().create(contextOverrides)) {
 			var system = ctx.repositorySystem();
 			var session = (DefaultRepositorySystemSession) ctx.repositorySystemSession();
 			session.setSystemProperty("aether.dependencyCollector.impl", "bf");
@@ -0,0 +1,253 @@
+package common;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import config.Config;
+
+/**
+ * Index of the project files that are not ignored (see {@link ProjectWalker}). The index is
+ * stored in the output directory and refreshed incrementally: only the directories whose
+ * modification time changed since the last refresh are listed again, the rest are taken from the
+ * index as they are.
+ *
+ * Changing the content of a file does not change the modification time of its directory, so the
+ * index only knows which files exist, callers that care about the content stat the files
+ * themselves. Ignore files are the exception, when one of them changes, the directory and
+ * everything below it is listed again.
+ */
+public class FileIndex {
+	private static final int version = 4;
+	private static FileIndex project;
+
+	private final Path root;
+	private final Path indexFile;
+	private final ProjectWalker walker;
+	private Map<Path, Dir> dirs = new HashMap<>();
+
+	public enum Kind {
+		JAVA,
+		OTHER
+	}
+
+	/// @param path Path relative to the project root
+	public record Entry(Path path, Kind kind) {
+	}
+
+	/// @param ignores Latest modification time of the ignore files of the directory, 0 without any
+	private record Dir(long modified, long ignores, List<Path> dirs, List<Entry> files) {
+	}
+
+	FileIndex(Path root, Path indexFile) {
+		this.root = root;
+		this.indexFile = indexFile;
+		this.walker = new ProjectWalker(root);
+	}
+
+	/// @return Up to date index of the project in the current directory, shared by all callers
+	public static synchronized FileIndex project() {
+		if (project == null) {
+			project = new FileIndex(Path.of("."), Config.outputVelesDir().resolve("files.idx"));
+			project.load();
+		}
+		project.refresh();
+
+		return project;
+	}
+
+	/// @return Indexed files, in the order of a depth first walk
+	public synchronized List<Entry> files() {
+		var files = new ArrayList<Entry>();
+		collect(Path.of(""), files);
+		return files;
+	}
+
+	private void collect(Path dir, List<Entry> files) {
+		var cached = dirs.get(dir);
+		if (cached == null) {
+			return;
+		}
+
+		files.addAll(cached.files());
+		cached.dirs().forEach(sub -> collect(sub, files));
+	}
+
+	/**
+	 * List the directories that changed since the last refresh and store the index if anything
+	 * changed.
+	 */
+	public synchronized void refresh() {
+		var refreshed = new HashMap<Path, Dir>();
+		var changed = visit(Path.of(""), refreshed, false);
+		changed |= refreshed.size() != dirs.size();
+		dirs = refreshed;
+		if (changed) {
+			store();
+		}
+	}
+
+	/**
+	 * @param stale Whether the ignore rules of a parent directory changed
+	 * @return Whether the directory or any of its subdirectories changed
+	 */
+	private boolean visit(Path dir, Map<Path, Dir> refreshed, boolean stale) {
+		var absolute = resolve(dir);
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(absolute, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			// deleted in the meantime
+			return true;
+		}
+
+		var modified = attrs.lastModifiedTime().toMillis();
+		var ignores = ignoresModified(absolute);
+		var cached = dirs.get(dir);
+		var changed = false;
+		if (cached != null && cached.ignores() != ignores) {
+			walker.invalidate(dir);
+			stale = true;
+		}
+		if (stale || cached == null || cached.modified() != modified) {
+			cached = list(dir, modified, ignores);
+			changed = true;
+		}
+
+		refreshed.put(dir, cached);
+		for (var sub : cached.dirs()) {
+			changed |= visit(sub, refreshed, stale);
+		}
+
+		return changed;
+	}
+
+	private Dir list(Path dir, long modified, long ignores) {
+		var subdirs = new ArrayList<Path>();
+		var files = new ArrayList<Entry>();
+		for (var entry : walker.list(dir)) {
+			var path = entry.path();
+			if (entry.isDirectory()) {
+				subdirs.add(path);
+			} else {
+				var kind = path.toString().endsWith(".java") ? Kind.JAVA : Kind.OTHER;
+				files.add(new Entry(path, kind));
+			}
+		}
+
+		return new Dir(modified, ignores, subdirs, files);
+	}
+
+	private static long ignoresModified(Path dir) {
+		var latest = 0L;
+		for (var ignoreFile : ProjectWalker.ignoreFiles) {
+			try {
+				var modified = Files.getLastModifiedTime(dir.resolve(ignoreFile));
+				latest = Math.max(latest, modified.toMillis());
+			} catch (IOException e) {
+				// no such ignore file
+			}
+		}
+
+		return latest;
+	}
+
+	private Path resolve(Path relative) {
+		return relative.toString().isEmpty() ? root : root.resolve(relative);
+	}
+
+	/// Editing the ignore files of the project root invalidates the whole index
+	private String header() {
+		var stamp = new StringBuilder("veles-file-index " + version);
+		for (var ignoreFile : ProjectWalker.ignoreFiles) {
+			try {
+				stamp.append(' ').append(Files.getLastModifiedTime(root.resolve(ignoreFile)).toMillis());
+			} catch (IOException e) {
+				stamp.append(" -");
+			}
+		}
+
+		return stamp.toString();
+	}
+
+	/**
+	 * Format: a header line, then a `D <modified> <ignores> <path>` line for every directory
+	 * followed by `F <kind> <path>` lines of its files and `S <path>` lines of its
+	 * subdirectories.
+	 */
+	private void load() {
+		if (!Files.exists(indexFile)) {
+			return;
+		}
+
+		var loaded = new HashMap<Path, Dir>();
+		try (BufferedReader reader = Files.newBufferedReader(indexFile)) {
+			if (!header().equals(reader.readLine())) {
+				return;
+			}
+
+			Dir dir = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				var parts = line.split(" ", line.startsWith("F") ? 3 : line.startsWith("D") ? 4 : 2);
+				switch (parts[0]) {
+					case "D" -> {
+						dir = new Dir(
+							Long.parseLong(parts[1]),
+							Long.parseLong(parts[2]),
+							new ArrayList<>(),
+							new ArrayList<>()
+						);
+						loaded.put(Path.of(parts[3]), dir);
+					}
+					case "S" -> dir.dirs().add(Path.of(parts[1]));
+					case "F" -> dir.files().add(new Entry(Path.of(parts[2]), Kind.valueOf(parts[1])));
+					default -> throw new IllegalStateException("Unknown index line: " + line);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// corrupted index, it gets rebuilt from scratch
+			return;
+		}
+
+		dirs = loaded;
+	}
+
+	private void store() {
+		try {
+			Files.createDirectories(indexFile.getParent());
+			var tmp = Files.createTempFile(indexFile.getParent(), "files", ".idx");
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+				writer.write(header() + "\n");
+				for (var e : dirs.entrySet()) {
+					var dir = e.getValue();
+					writer.write("D " + dir.modified() + " " + dir.ignores() + " " + e.getKey() + "\n");
+					for (var sub : dir.dirs()) {
+						writer.write("S " + sub + "\n");
+					}
+					for (var f : dir.files()) {
+						writer.write("F " + f.kind() + " " + f.path() + "\n");
+					}
+				}
+			}
+
+			try {
+				Files.move(tmp, indexFile, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			// the index is only a cache, the next invocation lists everything again
+		}
+	}
+}
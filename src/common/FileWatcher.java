@@ -0,0 +1,251 @@
+package common;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the project tree and delivers debounced {@link ChangeSet}s to the handler.
+ *
+ * Directories are registered as they appear and ignored ones (see {@link ProjectWalker}) are never
+ * registered. When the OS reports an overflow, the tree is rescanned and compared with the last
+ * known modification times, so no change is lost.
+ *
+ * The debounce window starts small and widens while events keep arriving in bursts, but a change
+ * never waits longer than `maxLatency`. If new changes arrive while the handler is still running,
+ * the handler is interrupted, which aborts the processes it is waiting on, and it is rerun with
+ * the merged changes.
+ */
+public class FileWatcher {
+	private static final long minDebounce = 10;
+	private static final long maxDebounce = 300;
+	private static final long maxLatency = 1000;
+
+	private final Path root;
+	private final ProjectWalker walker;
+	private final Consumer<ChangeSet> onChangeHandler;
+	private final ScheduledExecutorService executorService;
+	private final Map<WatchKey, Path> directories = new HashMap<>();
+	private final Set<Path> registered = new HashSet<>();
+	private final Map<Path, FileTime> files = new HashMap<>();
+	private final ChangeSet pending = new ChangeSet();
+	private WatchService watcher;
+	private ScheduledFuture<?> task;
+	private long debounce = minDebounce;
+	private long firstPendingAt;
+	private long lastEventAt;
+
+	public FileWatcher(Path root, Consumer<ChangeSet> onChangeHandler) {
+		this.root = root;
+		this.walker = new ProjectWalker(root)
+			.include(relative -> ChangeSet.classify(relative) == ChangeSet.Kind.CONFIG);
+		this.onChangeHandler = onChangeHandler;
+		this.executorService = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	public void watch() {
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		scan(root, null);
+
+		while (true) {
+			WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			synchronized (this) {
+				var dir = directories.get(key);
+				for (var event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW || dir == null) {
+						rescan();
+					} else if (event.context() instanceof Path name) {
+						onEvent(dir.resolve(name));
+					}
+				}
+
+				if (!pending.isEmpty()) {
+					var now = System.nanoTime();
+					if (firstPendingAt == 0) {
+						firstPendingAt = now;
+					}
+					if (lastEventAt != 0 && now - lastEventAt < TimeUnit.MILLISECONDS.toNanos(debounce)) {
+						debounce = Math.min(debounce * 2, maxDebounce);
+					} else {
+						debounce = minDebounce;
+					}
+					lastEventAt = now;
+
+					schedule();
+				}
+			}
+
+			if (!key.reset()) {
+				registered.remove(directories.remove(key));
+			}
+		}
+	}
+
+	private void onEvent(Path path) {
+		var relative = relativize(path);
+		if (ProjectWalker.ignoreFiles.contains(path.getFileName().toString())) {
+			var dir = relative.getParent();
+			walker.invalidate(dir == null ? Path.of("") : dir);
+			// directories that are not ignored anymore have to be registered, their files are new
+			scan(path.getParent(), pending);
+		}
+		if (Files.isDirectory(path)) {
+			if (!walker.isIgnored(relative, true)) {
+				// files created before the directory was registered would go unnoticed
+				scan(path, pending);
+			}
+			return;
+		}
+
+		if (!Files.exists(path)) {
+			// a deleted directory only reports itself, report the files that were inside it
+			var deleted = files.keySet().stream().filter(f -> f.startsWith(path)).toList();
+			deleted.forEach(f -> {
+				files.remove(f);
+				pending.add(relativize(f));
+			});
+			return;
+		}
+
+		if (walker.isIgnored(relative, false)) {
+			return;
+		}
+
+		try {
+			files.put(path, Files.getLastModifiedTime(path));
+		} catch (IOException e) {
+			files.remove(path);
+		}
+		pending.add(relative);
+	}
+
+	/// Compare the tree with the last known modification times
+	private void rescan() {
+		var known = new HashSet<>(files.keySet());
+		scan(root, pending);
+		known.removeAll(files.keySet());
+		known.forEach(deleted -> pending.add(relativize(deleted)));
+	}
+
+	/**
+	 * Register the directories under `dir` and record the modification times of its files. If
+	 * `changes` is given, files that are new or modified since the last scan are added to it.
+	 */
+	private void scan(Path dir, ChangeSet changes) {
+		var seen = new HashSet<Path>();
+		for (var entry : walker.walk(relativize(dir))) {
+			var path = root.resolve(entry.path());
+			if (entry.isDirectory()) {
+				if (registered.add(path)) {
+					try {
+						directories.put(path.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), path);
+					} catch (IOException e) {
+						// deleted in the meantime
+						registered.remove(path);
+					}
+				}
+				continue;
+			}
+
+			seen.add(path);
+			var modified = entry.attrs().lastModifiedTime();
+			var previous = files.put(path, modified);
+			if (changes != null && !modified.equals(previous)) {
+				changes.add(entry.path());
+			}
+		}
+
+		if (dir.equals(root)) {
+			files.keySet().retainAll(seen);
+		}
+	}
+
+	private Path relativize(Path path) {
+		return root.relativize(path).normalize();
+	}
+
+	private synchronized void schedule() {
+		if (task != null) {
+			task.cancel(true);
+		}
+
+		var waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstPendingAt);
+		var delay = Math.max(0, Math.min(debounce, maxLatency - waited));
+		task = executorService.schedule(this::fire, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void fire() {
+		ChangeSet batch;
+		synchronized (this) {
+			batch = pending.copy();
+			pending.clear();
+			firstPendingAt = 0;
+		}
+
+		BuildHistory.rebuilding();
+		try {
+			onChangeHandler.accept(batch);
+			BuildHistory.rebuilt(0);
+		} catch (CancellationException e) {
+			// preempted by newer changes, the next run handles these as well
+			requeue(batch);
+		} catch (Exception e) {
+			if (interrupted(e)) {
+				// preempted in the middle of I/O, e.g. a ClosedByInterruptException
+				requeue(batch);
+				return;
+			}
+			BuildHistory.rebuilt(1);
+			System.err.println("[veles] Rebuild failed: " + e);
+		}
+	}
+
+	private synchronized void requeue(ChangeSet batch) {
+		pending.addAll(batch);
+		if (firstPendingAt == 0) {
+			firstPendingAt = System.nanoTime();
+		}
+	}
+
+	/// Clears the interrupt flag, the thread is reused by the next run
+	private static boolean interrupted(Throwable e) {
+		var interrupted = Thread.interrupted();
+		for (var cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof InterruptedException || cause instanceof ClosedByInterruptException) {
+				interrupted = true;
+			}
+		}
+
+		return interrupted;
+	}
+}
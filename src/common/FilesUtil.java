@@ -7,9 +7,7 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
 import java.util.function.Predicate;
-import java.util.stream.Stream;
 
 public class FilesUtil {
 	public static void materializeAllInside(Path dir) {
@@ -56,47 +54,6 @@ public class FilesUtil {
 		}
 	}
 
-	public static Stream<Path> copyNonBuild(Path source, Path target, Predicate<Path> predicate) {
-		var files = new ArrayList<Path>();
-
-		try {
-			Path root = Path.of(".");
-			Path output = root.resolve("target");
-			Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-					throws IOException {
-					if (root.equals(dir)) {
-						return FileVisitResult.CONTINUE;
-					} else if (output.equals(dir) || Files.isHidden(dir)) {
-						return FileVisitResult.SKIP_SUBTREE;
-					} else {
-						return FileVisitResult.CONTINUE;
-					}
-				}
-
-				@Override
-				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-					// TODO: improve formatting here
-					if (!Files.isHidden(file)
-						&& !"veles.yaml".equals(file.toString())
-						&& predicate.test(file)) {
-						Path relative = source.relativize(file);
-						Path dest = target.resolve(relative);
-						Files.createDirectories(dest.getParent());
-						Files.copy(file, dest, StandardCopyOption.REPLACE_EXISTING);
-					}
-
-					return FileVisitResult.CONTINUE;
-				}
-			});
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-
-		return files.stream();
-	}
-
 	public static void deleteDir(Path dir) {
 		try {
 			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
@@ -0,0 +1,100 @@
+package common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Client side of {@link agent.HotSwapAgent}. Tracks the class files in the output directory and
+ * sends the ones that changed to the agent running inside the program.
+ */
+public class HotSwap {
+	private final int port = freePort();
+
+	public String javaagent() {
+		return "-javaagent:" + AgentJar.path() + "=" + port;
+	}
+
+	/**
+	 * Redefine the classes whose class files changed between the two snapshots. Classes that were
+	 * not there before are skipped, because the program will load them from the disk anyway.
+	 *
+	 * @return Result that is not `swapped` if the program has to be restarted
+	 */
+	public Result redefine(Path classesDir, Map<Path, FileTime> before, Map<Path, FileTime> after) {
+		var changed = new HashMap<String, Path>();
+		after.forEach((file, modified) -> {
+			if (before.containsKey(file) && !Objects.equals(before.get(file), modified)) {
+				changed.put(className(classesDir.relativize(file)), file.toAbsolutePath());
+			}
+		});
+		if (changed.isEmpty()) {
+			return new Result(true, "nothing to swap");
+		}
+
+		try (var socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			var out = new PrintWriter(socket.getOutputStream(), true);
+			var in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+			changed.forEach((name, file) -> out.println(name + " " + file));
+			out.println();
+
+			var response = in.readLine();
+			if (response != null && response.startsWith("OK ")) {
+				return new Result(true, "swapped " + response.substring(3) + " classes");
+			}
+
+			return new Result(false, response == null ? "agent closed the connection" : response);
+		} catch (IOException e) {
+			return new Result(false, "agent is not reachable: " + e.getMessage());
+		}
+	}
+
+	/// @return Class files inside `classesDir` with their last modified time
+	public static Map<Path, FileTime> snapshot(Path classesDir) {
+		var classes = new HashMap<Path, FileTime>();
+		if (!Files.exists(classesDir)) {
+			return classes;
+		}
+
+		try (var files = Files.walk(classesDir)) {
+			files.filter(f -> f.toString().endsWith(".class")).forEach(f -> {
+				try {
+					classes.put(f, Files.getLastModifiedTime(f));
+				} catch (IOException e) {
+					// deleted while walking
+				}
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return classes;
+	}
+
+	private static String className(Path relativeClassFile) {
+		var name = relativeClassFile.toString();
+		var separator = relativeClassFile.getFileSystem().getSeparator();
+		return name.substring(0, name.length() - ".class".length()).replace(separator, ".");
+	}
+
+	private static int freePort() {
+		try (var socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			return socket.getLocalPort();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not find a free port for the hot swap agent", e);
+		}
+	}
+
+	public record Result(boolean swapped, String message) {
+	}
+}
@@ -0,0 +1,171 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * `.gitignore` style rules for deciding which files of the project veles should look at. On top
+ * of the rules from `.gitignore` and `.velesignore`, the output directory, hidden files and editor
+ * temp files are always ignored.
+ *
+ * Paths are expected to be relative to the project root.
+ */
+public class IgnoreRules {
+	private static final List<String> builtin = List.of(
+		"/target/",
+		".*",
+		"*~",
+		"*.swp",
+		"*.swo",
+		"*.swx",
+		"#*#",
+		"4913",
+		"*.tmp",
+		"*___jb_tmp___",
+		"*___jb_old___"
+	);
+
+	private final List<Rule> rules = new ArrayList<>();
+
+	private record Rule(Pattern pattern, boolean negate, boolean directoryOnly, boolean anchored) {
+		boolean matches(String path, String name, boolean directory) {
+			if (directoryOnly && !directory) {
+				return false;
+			}
+
+			return pattern.matcher(anchored ? path : name).matches();
+		}
+	}
+
+	public static IgnoreRules load(Path root) {
+		var rules = new IgnoreRules();
+		builtin.forEach(rules::add);
+		rules.addFile(root.resolve(".gitignore"));
+		rules.addFile(root.resolve(".velesignore"));
+
+		return rules;
+	}
+
+	public IgnoreRules addFile(Path ignoreFile) {
+		try {
+			Files.readAllLines(ignoreFile).forEach(this::add);
+		} catch (NoSuchFileException e) {
+			// nothing to ignore
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return this;
+	}
+
+	public IgnoreRules add(String line) {
+		var pattern = line.stripTrailing();
+		if (pattern.isEmpty() || pattern.startsWith("#")) {
+			return this;
+		}
+
+		var negate = pattern.startsWith("!");
+		if (negate || pattern.startsWith("\\")) {
+			pattern = pattern.substring(1);
+		}
+
+		var directoryOnly = pattern.endsWith("/");
+		if (directoryOnly) {
+			pattern = pattern.substring(0, pattern.length() - 1);
+		}
+
+		var anchored = pattern.contains("/");
+		if (pattern.startsWith("/")) {
+			pattern = pattern.substring(1);
+		}
+
+		if (!pattern.isEmpty()) {
+			rules.add(new Rule(Pattern.compile(globToRegex(pattern)), negate, directoryOnly, anchored));
+		}
+
+		return this;
+	}
+
+	/// @return true if the path or any of its parent directories is ignored
+	public boolean isIgnored(Path relative, boolean directory) {
+		for (int i = 1; i < relative.getNameCount(); i++) {
+			if (matches(relative.subpath(0, i), true)) {
+				return true;
+			}
+		}
+
+		return matches(relative, directory);
+	}
+
+	/// Unlike {@link #isIgnored(Path, boolean)}, only the path itself is checked, which is what
+	/// walkers that prune ignored directories need
+	public boolean matches(Path relative, boolean directory) {
+		return Boolean.TRUE.equals(decide(relative, directory));
+	}
+
+	/// @return Whether the last rule matching the path ignores it, or null if no rule matches, so
+	///         that rules of nested ignore files can fall back to the ones of their parents
+	public Boolean decide(Path relative, boolean directory) {
+		if (relative.getNameCount() == 0 || relative.toString().isEmpty()) {
+			return null;
+		}
+
+		var path = relative.toString().replace('\\', '/');
+		var name = relative.getFileName().toString();
+		Boolean ignored = null;
+		for (var rule : rules) {
+			if (rule.matches(path, name, directory)) {
+				ignored = !rule.negate();
+			}
+		}
+
+		return ignored;
+	}
+
+	private static String globToRegex(String glob) {
+		var regex = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			var c = glob.charAt(i);
+			switch (c) {
+				case '*' -> {
+					if (glob.startsWith("**/", i)) {
+						regex.append("(?:.*/)?");
+						i += 2;
+					} else if (glob.startsWith("**", i)) {
+						regex.append(".*");
+						i += 1;
+					} else {
+						regex.append("[^/]*");
+					}
+				}
+				case '?' -> regex.append("[^/]");
+				case '[' -> {
+					var end = glob.indexOf(']', i + 1);
+					if (end == -1) {
+						regex.append("\\[");
+					} else {
+						var range = glob.substring(i + 1, end);
+						if (range.startsWith("!")) {
+							range = "^" + range.substring(1);
+						}
+						regex.append('[').append(range.replace("\\", "\\\\")).append(']');
+						i = end;
+					}
+				}
+				case '\\' -> {
+					if (i + 1 < glob.length()) {
+						regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+					}
+				}
+				default -> regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+
+		return regex.toString();
+	}
+}
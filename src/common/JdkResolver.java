@@ -21,6 +21,7 @@ public class JdkResolver {
 	private static Path jdkHome = null;
 	private static Path java = null;
 	private static Path javac = null;
+	private static Path jar = null;
 	private static Path nativeImage = null;
 	private static Path graalJava = null;
 	private static Path graalHome = null;
@@ -53,6 +54,20 @@ public class JdkResolver {
 		return javac;
 	}
 
+	public static Path jar() {
+		if (jar == null) {
+			var home = jdkHome();
+
+			if (home != null) {
+				jar = home.resolve("bin", "jar");
+			} else {
+				jar = Path.of("jar");
+			}
+		}
+
+		return jar;
+	}
+
 	public static Path nativeImage() {
 		if (nativeImage == null) {
 			var home = graalvmHome();
@@ -87,19 +102,21 @@ public class JdkResolver {
 
 	public static Path graalvmHome() {
 		if (graalHome == null) {
-			Path path;
-			if (Config.graalVersion() != null) {
-				path = jdkHome(new Jdk(Config.graalVersion(), Distro.graal));
-			} else if (Config.jdkVersion() != null) {
-				path = jdkHome(new Jdk(Config.jdkVersion(), Distro.graal));
-			} else {
-				return null;
-			}
+			try (var _ = Trace.span("jdk", "resolve GraalVM")) {
+				Path path;
+				if (Config.graalVersion() != null) {
+					path = jdkHome(new Jdk(Config.graalVersion(), Distro.graal));
+				} else if (Config.jdkVersion() != null) {
+					path = jdkHome(new Jdk(Config.jdkVersion(), Distro.graal));
+				} else {
+					return null;
+				}
 
-			if (Files.exists(path) && Files.isDirectory(path)) {
-				graalHome = path.toAbsolutePath();
-			} else {
-				graalHome = Path.of("");
+				if (Files.exists(path) && Files.isDirectory(path)) {
+					graalHome = path.toAbsolutePath();
+				} else {
+					graalHome = Path.of("");
+				}
 			}
 		}
 
@@ -108,8 +125,11 @@ public class JdkResolver {
 
 	public static Path jdkHome() {
 		if (jdkHome == null) {
-			var jdk = resolveRequiredJdkVersion();
-			jdkHome = jdkHome(jdk);
+			try (var span = Trace.span("jdk", "resolve JDK")) {
+				var jdk = resolveRequiredJdkVersion();
+				jdkHome = jdkHome(jdk);
+				span.arg("home", jdkHome);
+			}
 		}
 
 		return jdkHome;
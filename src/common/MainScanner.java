@@ -0,0 +1,144 @@
+package common;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Finds a source file with a main method. Scan results are stored in the output directory
+ * together with the modification time of the scanned file, so later runs only check that the
+ * previously detected entrypoint did not change and only read the files that did.
+ */
+public class MainScanner {
+	private static final Pattern mainMethodPattern = Pattern
+		.compile("^\\s*(?:public\\s+)?(?:static\\s+)?void\\s+main\\s*\\(");
+
+	private final Path cacheFile;
+	private final Map<Path, Scan> scans = new LinkedHashMap<>();
+	private Path entrypoint;
+	private boolean dirty;
+
+	private record Scan(long modified, boolean hasMain) {
+	}
+
+	public MainScanner(Path cacheFile) {
+		this.cacheFile = cacheFile;
+		load();
+	}
+
+	/**
+	 * @param candidates Lists the candidate source files, the first one with a main method wins
+	 *                   unless the previously detected entrypoint still has one, which only takes
+	 *                   a stat and does not list the candidates at all
+	 */
+	public Optional<Path> find(Supplier<List<Path>> candidates) {
+		if (entrypoint != null && hasMain(entrypoint)) {
+			if (dirty) {
+				store();
+			}
+			return Optional.of(entrypoint);
+		}
+
+		entrypoint = null;
+		var javaFiles = candidates.get();
+		scans.keySet().retainAll(new HashSet<>(javaFiles));
+		for (var file : javaFiles) {
+			if (hasMain(file)) {
+				entrypoint = file;
+				break;
+			}
+		}
+		store();
+
+		return Optional.ofNullable(entrypoint);
+	}
+
+	private boolean hasMain(Path file) {
+		long modified;
+		try {
+			modified = Files.getLastModifiedTime(file).toMillis();
+		} catch (IOException e) {
+			scans.remove(file);
+			return false;
+		}
+
+		var cached = scans.get(file);
+		if (cached != null && cached.modified() == modified) {
+			return cached.hasMain();
+		}
+
+		var hasMain = scan(file);
+		scans.put(file, new Scan(modified, hasMain));
+		dirty = true;
+		return hasMain;
+	}
+
+	/// Read the file line by line and stop at the first main method
+	static boolean scan(Path file) {
+		try (BufferedReader reader = Files.newBufferedReader(file)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (mainMethodPattern.matcher(line).find()) {
+					return true;
+				}
+			}
+		} catch (Exception e) {
+			// unreadable files can't be entrypoints
+		}
+
+		return false;
+	}
+
+	/// Format: `E <path>` of the detected entrypoint, then `<modified> <0|1> <path>` per file
+	private void load() {
+		if (!Files.exists(cacheFile)) {
+			return;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(cacheFile)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				var parts = line.split(" ", 3);
+				if (parts[0].equals("E")) {
+					entrypoint = Path.of(line.substring(2));
+				} else {
+					scans.put(Path.of(parts[2]), new Scan(Long.parseLong(parts[0]), parts[1].equals("1")));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// corrupted cache, everything gets scanned again
+			scans.clear();
+			entrypoint = null;
+		}
+	}
+
+	private void store() {
+		try {
+			Files.createDirectories(cacheFile.getParent());
+			var tmp = Files.createTempFile(cacheFile.getParent(), "main-scan", ".idx");
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+				if (entrypoint != null) {
+					writer.write("E " + entrypoint + "\n");
+				}
+				for (var e : scans.entrySet()) {
+					var scan = e.getValue();
+					writer.write(scan.modified() + " " + (scan.hasMain() ? 1 : 0) + " " + e.getKey() + "\n");
+				}
+			}
+			Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+			dirty = false;
+		} catch (IOException e) {
+			// the cache is optional
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Drains the stdout and stderr of a process that was started without inherited IO, so that a chatty
+ * process can never fill its pipes and stall. Each stream is read on its own virtual thread, and
+ * the last lines are kept in a ring buffer for error reports.
+ *
+ * Listeners get the lines in batches, one per read, on the thread that read them. A slow listener
+ * slows down the reading, which lets the pipe fill up and the process block on its writes, so
+ * nothing is buffered without bounds. A listener that subscribes late first gets the lines that
+ * are still in the ring buffer.
+ */
+public class OutputPump {
+	private static final int maxLineLength = 8192;
+
+	private final int capacity;
+	private final ArrayDeque<Line> tail;
+	private final List<Consumer<List<Line>>> listeners = new ArrayList<>();
+	private final List<Thread> readers = new ArrayList<>();
+
+	/// @param error Whether the line was written to stderr
+	public record Line(boolean error, String text) {
+	}
+
+	/// @param capacity Number of last lines to keep
+	public OutputPump(int capacity) {
+		this.capacity = capacity;
+		this.tail = new ArrayDeque<>(capacity);
+	}
+
+	/// Get the lines still in the ring buffer and then every line read after that
+	public synchronized void subscribe(Consumer<List<Line>> listener) {
+		if (!tail.isEmpty()) {
+			listener.accept(List.copyOf(tail));
+		}
+		listeners.add(listener);
+	}
+
+	public synchronized boolean hasListeners() {
+		return !listeners.isEmpty();
+	}
+
+	/// @return Last lines of both streams, in the order they were read
+	public synchronized List<Line> tail() {
+		return List.copyOf(tail);
+	}
+
+	public void start(Process process) {
+		readers.add(Thread.ofVirtual()
+			.name("veles-stdout-" + process.pid())
+			.start(() -> pump(process.getInputStream(), false)));
+		readers.add(Thread.ofVirtual()
+			.name("veles-stderr-" + process.pid())
+			.start(() -> pump(process.getErrorStream(), true)));
+	}
+
+	/**
+	 * Wait until both streams are read to the end, i.e. the process exited and everything it wrote
+	 * was delivered. Descendants of the process that inherited its pipes can keep them open after it
+	 * exited, so the wait is bounded.
+	 */
+	public void await(Duration timeout) throws InterruptedException {
+		var deadline = System.nanoTime() + timeout.toNanos();
+		for (var reader : readers) {
+			reader.join(Duration.ofNanos(Math.max(1, deadline - System.nanoTime())));
+		}
+	}
+
+	private void pump(InputStream stream, boolean error) {
+		try (var reader = new InputStreamReader(stream)) {
+			var buffer = new char[8192];
+			var pending = new StringBuilder();
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				pending.append(buffer, 0, read);
+				var lines = new ArrayList<Line>();
+				int start = 0;
+				int newLine;
+				while ((newLine = pending.indexOf("\n", start)) != -1) {
+					lines.add(line(error, pending, start, newLine));
+					start = newLine + 1;
+				}
+				pending.delete(0, start);
+				// a line that never ends must not grow without bounds either
+				if (pending.length() >= maxLineLength) {
+					lines.add(line(error, pending, 0, pending.length()));
+					pending.setLength(0);
+				}
+				if (!lines.isEmpty()) {
+					deliver(lines);
+				}
+			}
+			if (!pending.isEmpty()) {
+				deliver(List.of(line(error, pending, 0, pending.length())));
+			}
+		} catch (IOException e) {
+			// the process is gone
+		}
+	}
+
+	private static Line line(boolean error, StringBuilder pending, int start, int end) {
+		if (end > start && pending.charAt(end - 1) == '\r') {
+			end--;
+		}
+		return new Line(error, pending.substring(start, Math.min(end, start + maxLineLength)));
+	}
+
+	private synchronized void deliver(List<Line> lines) {
+		for (var line : lines) {
+			if (tail.size() == capacity) {
+				tail.removeFirst();
+			}
+			tail.addLast(line);
+		}
+		// a failing listener is dropped, the pipes must be drained regardless
+		listeners.removeIf(listener -> {
+			try {
+				listener.accept(lines);
+				return false;
+			} catch (RuntimeException e) {
+				return true;
+			}
+		});
+	}
+}
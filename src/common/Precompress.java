@@ -0,0 +1,164 @@
+package common;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a `.gz` variant next to every output resource that matches one of the globs, so that
+ * servers can serve pre-compressed assets. Globs without a `/` match the file name, the others
+ * the path relative to the output directory.
+ *
+ * The content hash of every compressed resource is kept in a manifest, and resources whose hash
+ * did not change are not compressed again.
+ */
+public class Precompress {
+	private final Path outputDir;
+	private final Path manifest;
+	private final List<PathMatcher> nameMatchers;
+	private final List<PathMatcher> pathMatchers;
+
+	public record Result(int compressed, int unchanged, int deleted) {
+		@Override
+		public String toString() {
+			return "%d compressed, %d unchanged, %d deleted".formatted(compressed, unchanged, deleted);
+		}
+	}
+
+	public Precompress(Path outputDir, Path manifest, List<String> globs) {
+		this.outputDir = outputDir;
+		this.manifest = manifest;
+		var fs = FileSystems.getDefault();
+		this.nameMatchers = globs.stream()
+			.filter(g -> !g.contains("/"))
+			.map(g -> fs.getPathMatcher("glob:" + g))
+			.toList();
+		this.pathMatchers = globs.stream()
+			.filter(g -> g.contains("/"))
+			.map(g -> fs.getPathMatcher("glob:" + g))
+			.toList();
+	}
+
+	public Result run() {
+		var previous = load();
+		var current = new ConcurrentHashMap<Path, String>();
+		var compressed = new AtomicInteger();
+		var unchanged = new AtomicInteger();
+
+		try (var files = Files.walk(outputDir)) {
+			files.parallel().filter(Files::isRegularFile).forEach(file -> {
+				var relative = outputDir.relativize(file);
+				if (!matches(relative)) {
+					return;
+				}
+
+				try {
+					var content = Files.readAllBytes(file);
+					var hash = hash(content);
+					current.put(relative, hash);
+					var variant = gzipVariant(file);
+					if (hash.equals(previous.get(relative)) && Files.exists(variant)) {
+						unchanged.incrementAndGet();
+						return;
+					}
+
+					try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(variant))) {
+						out.write(content);
+					}
+					compressed.incrementAndGet();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+		} catch (NoSuchFileException e) {
+			// nothing was compiled yet
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		var deleted = 0;
+		for (var relative : previous.keySet()) {
+			if (!current.containsKey(relative)) {
+				try {
+					if (Files.deleteIfExists(gzipVariant(outputDir.resolve(relative)))) {
+						deleted++;
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		store(current);
+		return new Result(compressed.get(), unchanged.get(), deleted);
+	}
+
+	private boolean matches(Path relative) {
+		var name = relative.getFileName().toString();
+		if (name.endsWith(".gz") || name.endsWith(".class")) {
+			return false;
+		}
+
+		return nameMatchers.stream().anyMatch(m -> m.matches(relative.getFileName()))
+			|| pathMatchers.stream().anyMatch(m -> m.matches(relative));
+	}
+
+	private static Path gzipVariant(Path file) {
+		return file.resolveSibling(file.getFileName() + ".gz");
+	}
+
+	private static String hash(byte[] content) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// Format: `<sha256> <path>` per compressed resource, paths relative to the output directory
+	private Map<Path, String> load() {
+		var hashes = new HashMap<Path, String>();
+		try (BufferedReader reader = Files.newBufferedReader(manifest)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				var parts = line.split(" ", 2);
+				hashes.put(Path.of(parts[1]), parts[0]);
+			}
+		} catch (NoSuchFileException e) {
+			// nothing compressed yet
+		} catch (IOException | RuntimeException e) {
+			// corrupted manifest, everything gets compressed again
+			hashes.clear();
+		}
+
+		return hashes;
+	}
+
+	private void store(Map<Path, String> hashes) {
+		try {
+			Files.createDirectories(manifest.getParent());
+			try (BufferedWriter writer = Files.newBufferedWriter(manifest)) {
+				for (var e : hashes.entrySet()) {
+					writer.write(e.getValue() + " " + e.getKey() + "\n");
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
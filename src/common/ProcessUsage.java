@@ -0,0 +1,171 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Samples the CPU time, resident memory and I/O of a process and its descendants until it exits,
+ * on a virtual thread. On Linux the numbers are read from `/proc/<pid>`, elsewhere only the CPU
+ * time is known, from {@link ProcessHandle.Info}.
+ *
+ * The numbers are sampled, so they miss what a process did between the last sample and its exit,
+ * and descendants that lived shorter than the sampling interval. Peak RSS is the larger of the
+ * peak of any single process and the peak sum over the process tree seen in one sample.
+ */
+public class ProcessUsage {
+	private static final Duration interval = Duration.ofMillis(200);
+	/// `USER_HZ`, the unit of the times in `/proc/<pid>/stat`, is 100 on all common architectures
+	private static final long ticksPerSecond = 100;
+	private static final boolean procfs = Files.isDirectory(Path.of("/proc/self"));
+
+	private final ProcessHandle process;
+	private final Map<Long, Sample> last = new HashMap<>();
+	private long treePeakRss;
+	private volatile boolean stopped;
+	private final Thread sampler;
+
+	/**
+	 * @param cpu          CPU time of user and kernel mode, summed over the process tree
+	 * @param peakRss      Peak resident memory in bytes, -1 when unknown
+	 * @param readBytes    Bytes read from the storage, -1 when unknown
+	 * @param writtenBytes Bytes written to the storage, -1 when unknown
+	 */
+	public record Usage(Duration cpu, long peakRss, long readBytes, long writtenBytes) {
+		@Override
+		public String toString() {
+			var usage = "cpu %.1f s".formatted(cpu.toMillis() / 1000.0);
+			if (peakRss >= 0) {
+				usage += ", peak rss " + megabytes(peakRss);
+			}
+			if (readBytes >= 0) {
+				usage += ", read " + megabytes(readBytes) + ", written " + megabytes(writtenBytes);
+			}
+			return usage;
+		}
+
+		private static String megabytes(long bytes) {
+			return (bytes / (1024 * 1024)) + " MB";
+		}
+	}
+
+	private record Sample(long cpuNanos, long rss, long peakRss, long read, long written) {
+	}
+
+	private ProcessUsage(ProcessHandle process) {
+		this.process = process;
+		this.sampler = Thread.ofVirtual().name("veles-usage-" + process.pid()).start(this::sampleLoop);
+	}
+
+	public static ProcessUsage watch(Process process) {
+		return new ProcessUsage(process.toHandle());
+	}
+
+	/// Stop sampling and return what was seen, call once the process exited
+	public Usage stop() {
+		stopped = true;
+		sampler.interrupt();
+		try {
+			sampler.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return usage();
+	}
+
+	private synchronized Usage usage() {
+		long cpu = 0;
+		long peakRss = treePeakRss;
+		long read = 0;
+		long written = 0;
+		for (var sample : last.values()) {
+			cpu += sample.cpuNanos();
+			peakRss = Math.max(peakRss, sample.peakRss());
+			read += sample.read();
+			written += sample.written();
+		}
+
+		return procfs
+			? new Usage(Duration.ofNanos(cpu), peakRss, read, written)
+			: new Usage(Duration.ofNanos(cpu), -1, -1, -1);
+	}
+
+	private void sampleLoop() {
+		while (!stopped && process.isAlive()) {
+			sample();
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private synchronized void sample() {
+		long treeRss = 0;
+		treeRss += sample(process);
+		for (var descendant : process.descendants().toList()) {
+			treeRss += sample(descendant);
+		}
+		treePeakRss = Math.max(treePeakRss, treeRss);
+	}
+
+	/// @return Current RSS of the process, 0 when it is gone or unknown
+	private long sample(ProcessHandle handle) {
+		if (!procfs) {
+			handle.info().totalCpuDuration().ifPresent(cpu -> {
+				last.put(handle.pid(), new Sample(cpu.toNanos(), 0, 0, 0, 0));
+			});
+			return 0;
+		}
+
+		var dir = Path.of("/proc", String.valueOf(handle.pid()));
+		try {
+			var stat = Files.readString(dir.resolve("stat"));
+			// the command name in parentheses can contain spaces, the fields after it can not
+			var fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+			var ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+
+			long rss = 0;
+			long peakRss = 0;
+			for (var line : Files.readAllLines(dir.resolve("status"))) {
+				if (line.startsWith("VmRSS:")) {
+					rss = kilobytes(line);
+				} else if (line.startsWith("VmHWM:")) {
+					peakRss = kilobytes(line);
+				}
+			}
+
+			var previous = last.get(handle.pid());
+			long read = previous == null ? 0 : previous.read();
+			long written = previous == null ? 0 : previous.written();
+			try {
+				for (var line : Files.readAllLines(dir.resolve("io"))) {
+					if (line.startsWith("read_bytes:")) {
+						read = Long.parseLong(line.substring("read_bytes:".length()).trim());
+					} else if (line.startsWith("write_bytes:")) {
+						written = Long.parseLong(line.substring("write_bytes:".length()).trim());
+					}
+				}
+			} catch (IOException e) {
+				// io accounting is not always readable, e.g. in some containers
+			}
+
+			var cpuNanos = ticks * 1_000_000_000 / ticksPerSecond;
+			last.put(handle.pid(), new Sample(cpuNanos, rss, peakRss, read, written));
+			return rss;
+		} catch (IOException | RuntimeException e) {
+			// exited between listing and reading, the last sample stays
+			return 0;
+		}
+	}
+
+	private static long kilobytes(String statusLine) {
+		var value = statusLine.substring(statusLine.indexOf(':') + 1).trim().split("\\s+")[0];
+		return Long.parseLong(value) * 1024;
+	}
+}
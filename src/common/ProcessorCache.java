@@ -0,0 +1,329 @@
+package common;
+
+import static common.FilesUtil.deleteDir;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Reuses the outputs of annotation processing when its inputs did not change. The inputs are the
+ * javac options (which include the processor path), the size and modification time of every
+ * processor jar, and the content of every source that uses an annotation, together with the
+ * sources of all the types those reach. Processors also read the supertypes, field types and
+ * inherited members of the annotated elements (e.g. a DTO mapped by MapStruct or serialized by
+ * avaje-jsonb), which are found in the {@link ClassGraph} of the classes javac just wrote. When
+ * there are no classes to read, every source is an input. Editing any other source keeps the
+ * outputs, unless the edit adds an annotation to it.
+ *
+ * After a processing run, the manifest records its inputs together with the generated sources and
+ * the resources the processors wrote to the classes output (e.g. `META-INF/services` entries).
+ * The resources are stashed, since the classes output is cleaned before every build. When the
+ * inputs are the same on the next build, the stashed resources are restored and the generated
+ * sources are compiled like any other source, with processing turned off.
+ */
+public class ProcessorCache {
+	private static final Pattern annotationPattern = Pattern.compile("@\\s*([A-Za-z_][\\w.]*)");
+	private static final Set<String> builtinAnnotations = Set.of(
+		"Override",
+		"Deprecated",
+		"SuppressWarnings",
+		"FunctionalInterface",
+		"SafeVarargs"
+	);
+
+	private final Path dir;
+	private final Path manifest;
+	private final Path stash;
+	private final Path resourceDir;
+	private final Path generatedDir;
+	private final Path classesDir;
+	private final Collection<Path> sources;
+	private final List<Path> generatedSources = new ArrayList<>();
+	/// Content hash per source as javac read it, taken before a processing run
+	private final Map<String, String> hashes = new HashMap<>();
+	private String key;
+	private long processedSince = -1;
+
+	/**
+	 * @param dir          Directory to keep the manifest and the stashed resources in
+	 * @param resourceDir  Directory the sources are in and the regular resources are synced from,
+	 *                     which are never stashed
+	 * @param generatedDir Directory passed to javac with `-s`
+	 * @param classesDir   Directory passed to javac with `-d`
+	 * @param sources      Sources passed to javac, only these are seen by the processors
+	 */
+	public ProcessorCache(Path dir, Path resourceDir, Path generatedDir, Path classesDir,
+		Collection<Path> sources) {
+		this.dir = dir;
+		this.manifest = dir.resolve("outputs.idx");
+		this.stash = dir.resolve("resources");
+		this.resourceDir = resourceDir;
+		this.generatedDir = generatedDir;
+		this.classesDir = classesDir;
+		this.sources = sources;
+	}
+
+	/**
+	 * Restore the outputs of the last processing run when its inputs are the same. Otherwise the
+	 * outputs of the last run are dropped, so that only the outputs of the upcoming run get recorded.
+	 *
+	 * @param options   javac options, without the sources
+	 * @param processor Jars on the processor path
+	 * @return Whether the outputs were restored and processing can be skipped
+	 */
+	public boolean reuse(List<String> options, List<String> processor) {
+		key = key(options, processor);
+		if (restore()) {
+			BuildHistory.count("processors hit", 1);
+			return true;
+		}
+
+		BuildHistory.count("processors miss", 1);
+		deleteDir(generatedDir);
+		deleteDir(dir);
+		try {
+			for (var source : sources) {
+				hashes.put(source.normalize().toString(), hash(Files.readAllBytes(source)));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		// resources copied right before the compilation must not look like generated ones
+		processedSince = System.currentTimeMillis() - 1000;
+		return false;
+	}
+
+	/// @return Generated sources that have to be compiled along the sources when outputs were reused
+	public List<Path> generatedSources() {
+		return generatedSources;
+	}
+
+	/// Record the outputs of the processing run, call only after javac succeeded
+	public void record() {
+		if (key == null || processedSince == -1) {
+			return;
+		}
+
+		try {
+			var lines = new ArrayList<String>();
+			lines.add("K " + key);
+			for (var input : inputs()) {
+				lines.add("I " + hashes.get(input) + " " + input);
+			}
+			if (Files.exists(generatedDir)) {
+				try (var files = Files.walk(generatedDir)) {
+					files.filter(Files::isRegularFile)
+						.forEach(f -> lines.add("S " + generatedDir.relativize(f)));
+				}
+			}
+			if (Files.exists(classesDir)) {
+				try (var files = Files.walk(classesDir)) {
+					for (var file : files.filter(Files::isRegularFile).toList()) {
+						var relative = classesDir.relativize(file);
+						if (isGeneratedResource(file, relative)) {
+							var stashed = stash.resolve(relative);
+							Files.createDirectories(stashed.getParent());
+							Files.copy(file, stashed, StandardCopyOption.REPLACE_EXISTING);
+							lines.add("R " + relative);
+						}
+					}
+				}
+			}
+
+			// the manifest goes last, a partially recorded run is never reused
+			Files.createDirectories(dir);
+			var tmp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+				for (var line : lines) {
+					writer.write(line + "\n");
+				}
+			}
+			Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// @return Annotated sources and the sources of the types they reach, sorted
+	private Set<String> inputs() {
+		var graph = new ClassGraph().add(classesDir, resourceDir);
+		graph.refresh();
+		if (graph.classes(classesDir).isEmpty()) {
+			return new TreeSet<>(hashes.keySet());
+		}
+
+		var reached = new HashSet<String>();
+		var queue = new ArrayDeque<String>();
+		for (var source : sources) {
+			if (isAnnotated(source)) {
+				queue.addAll(graph.classesOf(source.normalize()));
+			}
+		}
+		while (!queue.isEmpty()) {
+			var node = graph.get(queue.poll());
+			if (node != null && reached.add(node.name())) {
+				queue.addAll(node.references());
+			}
+		}
+
+		var inputs = new TreeSet<String>();
+		for (var name : reached) {
+			var source = graph.get(name).source();
+			if (source != null && hashes.containsKey(source.toString())) {
+				inputs.add(source.toString());
+			}
+		}
+		return inputs;
+	}
+
+	/// Javadoc tags like `@param` are lower case, the annotations that matter are not
+	private static boolean isAnnotated(Path source) {
+		String content;
+		try {
+			content = Files.readString(source);
+		} catch (IOException e) {
+			return true;
+		}
+
+		var matcher = annotationPattern.matcher(content);
+		while (matcher.find()) {
+			var name = matcher.group(1);
+			var simpleName = name.substring(name.lastIndexOf('.') + 1);
+			if (simpleName.isEmpty() || !Character.isUpperCase(simpleName.charAt(0))) {
+				continue;
+			}
+			var builtin = builtinAnnotations.contains(simpleName)
+				&& (!name.contains(".") || name.startsWith("java.lang."));
+			if (!builtin) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean isGeneratedResource(Path file, Path relative) throws IOException {
+		var name = file.getFileName().toString();
+		if (name.endsWith(".class") || name.endsWith(".gz")) {
+			return false;
+		}
+		if (Files.exists(resourceDir.resolve(relative))) {
+			return false;
+		}
+
+		return Files.getLastModifiedTime(file).toMillis() >= processedSince;
+	}
+
+	/// Format: `K <key>`, then `I <sha256> <path>` per input, `S <path>` per generated source
+	/// relative to the generated dir and `R <path>` per generated resource relative to the classes
+	private boolean restore() {
+		var restoredSources = new ArrayList<Path>();
+		var resources = new ArrayList<Path>();
+		var inputs = new HashSet<String>();
+		try (BufferedReader reader = Files.newBufferedReader(manifest)) {
+			var first = reader.readLine();
+			if (first == null || !first.equals("K " + key)) {
+				return false;
+			}
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("I ")) {
+					var parts = line.split(" ", 3);
+					var input = Path.of(parts[2]);
+					if (!Files.exists(input) || !parts[1].equals(hash(Files.readAllBytes(input)))) {
+						return false;
+					}
+					inputs.add(parts[2]);
+					continue;
+				}
+
+				var path = Path.of(line.substring(2));
+				switch (line.charAt(0)) {
+					case 'S' -> restoredSources.add(generatedDir.resolve(path));
+					case 'R' -> resources.add(path);
+					default -> {
+					}
+				}
+			}
+		} catch (NoSuchFileException e) {
+			return false;
+		} catch (IOException | RuntimeException e) {
+			// corrupted manifest, processors run again
+			return false;
+		}
+
+		// a source that got annotated since, e.g. a new entity
+		var annotated = sources.stream()
+			.filter(source -> !inputs.contains(source.normalize().toString()))
+			.anyMatch(ProcessorCache::isAnnotated);
+		if (annotated) {
+			return false;
+		}
+
+		if (!restoredSources.stream().allMatch(Files::exists)
+			|| !resources.stream().allMatch(r -> Files.exists(stash.resolve(r)))) {
+			return false;
+		}
+
+		try {
+			for (var resource : resources) {
+				var dest = classesDir.resolve(resource);
+				Files.createDirectories(dest.getParent());
+				Files.copy(stash.resolve(resource), dest, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		restoredSources.stream()
+			.filter(s -> s.toString().endsWith(".java"))
+			.forEach(generatedSources::add);
+		return true;
+	}
+
+	private String key(List<String> options, List<String> processor) {
+		try {
+			var digest = MessageDigest.getInstance("SHA-256");
+			options.forEach(o -> digest.update((o + "\0").getBytes(StandardCharsets.UTF_8)));
+			for (var jar : processor) {
+				var path = Path.of(jar);
+				var stamp = Files.exists(path)
+					? Files.size(path) + " " + Files.getLastModifiedTime(path).toMillis()
+					: "missing";
+				digest.update((jar + " " + stamp + "\0").getBytes(StandardCharsets.UTF_8));
+			}
+
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (IOException | NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String hash(byte[] content) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+/**
+ * Walks the project tree, skipping everything that {@link IgnoreRules} ignore. Ignored
+ * directories are pruned without being listed. Besides the rules from the project root,
+ * `.gitignore` and `.velesignore` files in subdirectories apply to everything below them.
+ *
+ * The rules of every directory are read once and cached, long lived walkers have to be told about
+ * changed ignore files with {@link #invalidate(Path)}.
+ *
+ * Subdirectories are walked in parallel on the common {@link ForkJoinPool}. Symbolic links are not
+ * followed.
+ */
+public class ProjectWalker {
+	/// Names of the ignore files that apply to their directory and everything below it
+	public static final List<String> ignoreFiles = List.of(".gitignore", ".velesignore");
+
+	private final Path root;
+	private final Map<Path, Scope> scopes = new ConcurrentHashMap<>();
+	private Predicate<Path> included = _ -> false;
+
+	/// @param path File path relative to the project root
+	public record Entry(Path path, BasicFileAttributes attrs) {
+		public boolean isDirectory() {
+			return attrs.isDirectory();
+		}
+	}
+
+	/// Ignore rules of a directory, falling back to the rules of the parent directories
+	private record Scope(Path base, IgnoreRules rules, Scope parent) {
+		boolean isIgnored(Path relative, boolean directory) {
+			for (var scope = this; scope != null; scope = scope.parent()) {
+				var ignored = scope.rules().decide(scope.base().relativize(relative), directory);
+				if (ignored != null) {
+					return ignored;
+				}
+			}
+
+			return false;
+		}
+	}
+
+	public ProjectWalker(Path root) {
+		this.root = root;
+		scopes.put(Path.of(""), new Scope(Path.of(""), IgnoreRules.load(root), null));
+	}
+
+	/// Keep the matching files even if they are ignored, directories are still pruned
+	public ProjectWalker include(Predicate<Path> files) {
+		this.included = files;
+		return this;
+	}
+
+	/// Forget the ignore rules of the directory and its subdirectories, call when one of the ignore
+	/// files of the directory was added, changed or deleted
+	public void invalidate(Path dir) {
+		var base = dir.normalize();
+		if (base.toString().isEmpty()) {
+			scopes.clear();
+			scopes.put(base, new Scope(base, IgnoreRules.load(root), null));
+		} else {
+			scopes.keySet().removeIf(scope -> scope.startsWith(base));
+		}
+	}
+
+	/// @return true if the path or any of its parent directories is ignored
+	public boolean isIgnored(Path relative, boolean directory) {
+		relative = relative.normalize();
+		if (relative.toString().isEmpty()) {
+			return false;
+		}
+
+		for (int i = 1; i < relative.getNameCount(); i++) {
+			var dir = relative.subpath(0, i);
+			if (scope(parent(dir)).isIgnored(dir, true)) {
+				return true;
+			}
+		}
+
+		return scope(parent(relative)).isIgnored(relative, directory)
+			&& (directory || !included.test(relative));
+	}
+
+	/**
+	 * Walk the tree under the given directory.
+	 *
+	 * @param start Directory relative to the project root
+	 * @return Files and directories under `start`, including `start` itself, in no particular order
+	 */
+	public List<Entry> walk(Path start) {
+		start = start.normalize();
+		if (isIgnored(start, true)) {
+			return List.of();
+		}
+
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files
+				.readAttributes(resolve(start), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException e) {
+			return List.of();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		var entries = new ConcurrentLinkedQueue<Entry>();
+		entries.add(new Entry(start, attrs));
+		if (attrs.isDirectory()) {
+			ForkJoinPool.commonPool().invoke(new Walk(start, entries));
+		}
+
+		return new ArrayList<>(entries);
+	}
+
+	/// @return Files of the tree under the given directory
+	public List<Path> files(Path start) {
+		return walk(start).stream().filter(e -> !e.isDirectory()).map(Entry::path).toList();
+	}
+
+	private class Walk extends RecursiveAction {
+		private final Path dir;
+		private final ConcurrentLinkedQueue<Entry> entries;
+
+		Walk(Path dir, ConcurrentLinkedQueue<Entry> entries) {
+			this.dir = dir;
+			this.entries = entries;
+		}
+
+		@Override
+		protected void compute() {
+			var subdirs = new ArrayList<Walk>();
+			for (var entry : list(dir)) {
+				entries.add(entry);
+				if (entry.isDirectory()) {
+					subdirs.add(new Walk(entry.path(), entries));
+				}
+			}
+
+			invokeAll(subdirs);
+		}
+	}
+
+	/**
+	 * @param dir Directory relative to the project root, which is not ignored itself
+	 * @return Entries of the directory that are not ignored
+	 */
+	public List<Entry> list(Path dir) {
+		var scope = scope(dir);
+		var entries = new ArrayList<Entry>();
+		try (DirectoryStream<Path> children = Files.newDirectoryStream(resolve(dir))) {
+			for (var child : children) {
+				var relative = dir.resolve(child.getFileName());
+				BasicFileAttributes attrs;
+				try {
+					attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				} catch (NoSuchFileException e) {
+					continue;
+				}
+
+				var directory = attrs.isDirectory();
+				if (scope.isIgnored(relative, directory) && (directory || !included.test(relative))) {
+					continue;
+				}
+
+				entries.add(new Entry(relative, attrs));
+			}
+		} catch (NoSuchFileException e) {
+			// deleted in the meantime
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return entries;
+	}
+
+	private Scope scope(Path dir) {
+		var scope = scopes.get(dir);
+		if (scope != null) {
+			return scope;
+		}
+
+		var parent = scope(parent(dir));
+		var absolute = resolve(dir);
+		var gitignore = absolute.resolve(".gitignore");
+		var velesignore = absolute.resolve(".velesignore");
+		if (Files.exists(gitignore) || Files.exists(velesignore)) {
+			scope = new Scope(dir, new IgnoreRules().addFile(gitignore).addFile(velesignore), parent);
+		} else {
+			scope = parent;
+		}
+
+		var existing = scopes.putIfAbsent(dir, scope);
+		return existing != null ? existing : scope;
+	}
+
+	private static Path parent(Path relative) {
+		var parent = relative.getParent();
+		return parent == null ? Path.of("") : parent;
+	}
+
+	private Path resolve(Path relative) {
+		return relative.toString().isEmpty() ? root : root.resolve(relative);
+	}
+}
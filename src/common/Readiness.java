@@ -0,0 +1,189 @@
+package common;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Decides when a freshly started process is ready to take over from the old one. Without any
+ * probe configured, a process that is still alive after a short grace period is considered ready.
+ *
+ * The old process usually serves the same port and URL, so the port and URL probes only pass once
+ * the socket listening on the port belongs to the new process. That takes procfs, elsewhere the
+ * two processes can't be told apart and only the log probe can be used, see {@link #check()}.
+ */
+public class Readiness {
+	private static final Duration grace = Duration.ofSeconds(1);
+	private static final Duration interval = Duration.ofMillis(100);
+
+	private final Integer port;
+	private final Pattern logLine;
+	private final URI url;
+	private final Duration timeout;
+	private volatile boolean logMatched;
+
+	public Readiness(Integer port, Pattern logLine, URI url, Duration timeout) {
+		this.port = port;
+		this.logLine = logLine;
+		this.url = url;
+		this.timeout = timeout;
+	}
+
+	/// Fail for probes that can't tell the new process from the old one on this OS
+	public void check() {
+		if ((port != null || url != null) && logLine == null && !Os.isLinux()) {
+			throw new IllegalArgumentException(
+				"--ready-port and --ready-url can't tell the new process from the old one on "
+					+ Os.name() + ", use --ready-log"
+			);
+		}
+	}
+
+	public enum Status {
+		READY,
+		EXITED,
+		TIMEOUT
+	}
+
+	/// Feed a line of the process output to the log probe
+	public void accept(String line) {
+		if (logLine != null && !logMatched && logLine.matcher(line).find()) {
+			logMatched = true;
+		}
+	}
+
+	/// Copy the output of a process that was started without inherited IO to ours, while feeding
+	/// the lines to the log probe
+	public void forward(OutputPump output) {
+		output.subscribe(lines -> {
+			for (var line : lines) {
+				(line.error() ? System.err : System.out).println(line.text());
+				accept(line.text());
+			}
+		});
+	}
+
+	/// Block until all configured probes pass, the process exits or the timeout elapses
+	public Status await(Process process) {
+		var start = System.nanoTime();
+		while (true) {
+			if (!process.isAlive()) {
+				return Status.EXITED;
+			}
+
+			var elapsed = Duration.ofNanos(System.nanoTime() - start);
+			if (isReady(process, elapsed)) {
+				return Status.READY;
+			}
+			if (elapsed.compareTo(timeout) > 0) {
+				return Status.TIMEOUT;
+			}
+
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return Status.TIMEOUT;
+			}
+		}
+	}
+
+	private boolean isReady(Process process, Duration elapsed) {
+		if (port == null && logLine == null && url == null) {
+			return elapsed.compareTo(grace) >= 0;
+		}
+
+		return (logLine == null || logMatched)
+			&& (port == null || listens(process, port))
+			&& (url == null || listens(process, port(url)) && responds(url));
+	}
+
+	/**
+	 * On Linux, check that the socket listening on the port belongs to the process (or its
+	 * children), because the old process is very likely listening on the same port. Elsewhere, fall
+	 * back to checking if anything accepts connections on the port, which only happens together
+	 * with the log probe.
+	 */
+	private static boolean listens(Process process, int port) {
+		if (!Os.isLinux()) {
+			try (var _ = new Socket(InetAddress.getLoopbackAddress(), port)) {
+				return true;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		var inodes = listeningInodes(port);
+		if (inodes.isEmpty()) {
+			return false;
+		}
+
+		return Stream.concat(Stream.of(process.toHandle()), process.descendants())
+			.anyMatch(p -> ownsAnySocket(p.pid(), inodes));
+	}
+
+	private static Set<String> listeningInodes(int port) {
+		var inodes = new HashSet<String>();
+		var hexPort = ":%04X".formatted(port);
+		for (var table : new String[] { "/proc/net/tcp", "/proc/net/tcp6" }) {
+			try (var lines = Files.lines(Path.of(table))) {
+				lines.skip(1).map(l -> l.trim().split("\\s+")).forEach(columns -> {
+					// local_address is column 1, st is column 3 (0A = LISTEN) and inode is column 9
+					if (columns.length > 9 && columns[1].endsWith(hexPort) && "0A".equals(columns[3])) {
+						inodes.add("socket:[" + columns[9] + "]");
+					}
+				});
+			} catch (IOException e) {
+				// no ipv6 or no procfs
+			}
+		}
+
+		return inodes;
+	}
+
+	private static boolean ownsAnySocket(long pid, Set<String> inodes) {
+		try (var fds = Files.list(Path.of("/proc", String.valueOf(pid), "fd"))) {
+			return fds.anyMatch(fd -> {
+				try {
+					return inodes.contains(Files.readSymbolicLink(fd).toString());
+				} catch (IOException e) {
+					return false;
+				}
+			});
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static int port(URI url) {
+		if (url.getPort() != -1) {
+			return url.getPort();
+		}
+
+		return "https".equals(url.getScheme()) ? 443 : 80;
+	}
+
+	private static boolean responds(URI url) {
+		var request = HttpRequest.newBuilder(url).timeout(interval.multipliedBy(10)).GET().build();
+		try (var client = HttpClient.newHttpClient()) {
+			var status = client.send(request, BodyHandlers.discarding()).statusCode();
+			return status >= 200 && status < 300;
+		} catch (IOException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
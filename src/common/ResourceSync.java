@@ -0,0 +1,163 @@
+package common;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Mirrors the files of a source directory that are not ignored (see {@link ProjectWalker}) into
+ * an output directory. A manifest of the synced files remembers the size and modification time
+ * they had when they were synced, so that only new and changed files are copied and the outputs
+ * of files that were deleted, and only those, are removed.
+ *
+ * Files can be hard linked instead of copied, falling back to copying when the file system does
+ * not support it, e.g. when the output is on another device. Linked outputs share the content with
+ * the sources, so they must never be modified in place.
+ */
+public class ResourceSync {
+	private final Path source;
+	private final Path target;
+	private final Path manifest;
+	private final boolean link;
+	private volatile boolean linkSupported = true;
+
+	private record Synced(long size, long modified) {
+	}
+
+	public record Result(int copied, int linked, int unchanged, int deleted) {
+		@Override
+		public String toString() {
+			return "%d copied, %d linked, %d unchanged, %d deleted"
+				.formatted(copied, linked, unchanged, deleted);
+		}
+	}
+
+	/**
+	 * @param source   Directory relative to the project root
+	 * @param target   Output directory
+	 * @param manifest File to keep the synced files in
+	 * @param link     Whether to hard link the files instead of copying them
+	 */
+	public ResourceSync(Path source, Path target, Path manifest, boolean link) {
+		this.source = source.normalize();
+		this.target = target;
+		this.manifest = manifest;
+		this.link = link;
+	}
+
+	/// Sync the files under the source directory that match the predicate, except for `veles.yaml`
+	public Result sync(Predicate<Path> predicate) {
+		var previous = load();
+		var current = new ConcurrentHashMap<Path, Synced>();
+		var copied = new AtomicInteger();
+		var linked = new AtomicInteger();
+		var unchanged = new AtomicInteger();
+
+		new ProjectWalker(Path.of(".")).walk(source).parallelStream().forEach(entry -> {
+			var file = entry.path();
+			if (entry.isDirectory() || "veles.yaml".equals(file.toString()) || !predicate.test(file)) {
+				return;
+			}
+
+			var relative = source.relativize(file);
+			var dest = target.resolve(relative);
+			var attrs = entry.attrs();
+			var synced = new Synced(attrs.size(), attrs.lastModifiedTime().toMillis());
+			current.put(relative, synced);
+			if (synced.equals(previous.get(relative)) && isUpToDate(dest, synced)) {
+				unchanged.incrementAndGet();
+				return;
+			}
+
+			try {
+				Files.createDirectories(dest.getParent());
+				if (link && linkSupported && link(file, dest)) {
+					linked.incrementAndGet();
+				} else {
+					Files.copy(file, dest, StandardCopyOption.REPLACE_EXISTING);
+					copied.incrementAndGet();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+
+		var deleted = 0;
+		for (var relative : previous.keySet()) {
+			if (!current.containsKey(relative)) {
+				try {
+					if (Files.deleteIfExists(target.resolve(relative))) {
+						deleted++;
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		store(current);
+		return new Result(copied.get(), linked.get(), unchanged.get(), deleted);
+	}
+
+	private static boolean isUpToDate(Path dest, Synced synced) {
+		try {
+			return Files.size(dest) == synced.size();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private boolean link(Path file, Path dest) {
+		try {
+			Files.deleteIfExists(dest);
+			Files.createLink(dest, file);
+			return true;
+		} catch (UnsupportedOperationException | IOException e) {
+			linkSupported = false;
+			return false;
+		}
+	}
+
+	/// Format: `<size> <modified> <path>` per synced file, paths relative to the source directory
+	private Map<Path, Synced> load() {
+		var synced = new HashMap<Path, Synced>();
+		try (BufferedReader reader = Files.newBufferedReader(manifest)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				var parts = line.split(" ", 3);
+				var size = Long.parseLong(parts[0]);
+				synced.put(Path.of(parts[2]), new Synced(size, Long.parseLong(parts[1])));
+			}
+		} catch (NoSuchFileException e) {
+			// first sync
+		} catch (IOException | RuntimeException e) {
+			// corrupted manifest, everything gets synced again
+			synced.clear();
+		}
+
+		return synced;
+	}
+
+	private void store(Map<Path, Synced> synced) {
+		try {
+			Files.createDirectories(manifest.getParent());
+			try (BufferedWriter writer = Files.newBufferedWriter(manifest)) {
+				for (var e : synced.entrySet()) {
+					var file = e.getValue();
+					writer.write(file.size() + " " + file.modified() + " " + e.getKey() + "\n");
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the sources into partitions that javac can compile independently. Packages that depend
+ * on each other, directly or in a cycle, end up in the same partition (a strongly connected
+ * component of the package dependency graph). Partitions are ordered in layers, so that every
+ * partition only depends on partitions of the earlier layers, and the partitions of a layer can
+ * be compiled concurrently.
+ *
+ * Dependencies are read from the imports and the fully qualified names in the sources. A missed
+ * dependency does not break the build as long as the sources stay on javac's `--source-path`, it
+ * only costs some parallelism.
+ */
+public class SourcePartitions {
+	private static final Pattern importPattern = Pattern
+		.compile("^\\s*import\\s+(?:static\\s+)?([\\w.]+?)(?:\\.\\*)?\\s*;", Pattern.MULTILINE);
+	private static final Pattern qualifiedPattern = Pattern
+		.compile("\\b([a-z_]\\w*(?:\\.[a-z_]\\w*)*)\\.[A-Z]");
+
+	private final Map<String, List<Path>> packages = new LinkedHashMap<>();
+	private final Map<String, Set<String>> dependencies = new HashMap<>();
+
+	/**
+	 * @param sourceDir Root of the sources, used to derive the packages from the file paths
+	 * @param sources   Files to partition
+	 */
+	public SourcePartitions(Path sourceDir, List<Path> sources) {
+		for (var source : sources) {
+			packages.computeIfAbsent(packageOf(sourceDir, source), _ -> new ArrayList<>()).add(source);
+		}
+
+		packages.forEach((pkg, files) -> {
+			var deps = new HashSet<String>();
+			for (var file : files) {
+				String content;
+				try {
+					content = Files.readString(file);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+
+				var imports = importPattern.matcher(content);
+				while (imports.find()) {
+					addDependency(deps, imports.group(1));
+				}
+				var qualified = qualifiedPattern.matcher(content);
+				while (qualified.find()) {
+					addDependency(deps, qualified.group(1));
+				}
+			}
+			deps.remove(pkg);
+			dependencies.put(pkg, deps);
+		});
+	}
+
+	/// Resolve the longest known package that is a prefix of the name
+	private void addDependency(Set<String> deps, String name) {
+		while (!name.isEmpty()) {
+			if (packages.containsKey(name)) {
+				deps.add(name);
+				return;
+			}
+
+			var dot = name.lastIndexOf('.');
+			name = dot == -1 ? "" : name.substring(0, dot);
+		}
+	}
+
+	private static String packageOf(Path sourceDir, Path source) {
+		var parent = sourceDir.relativize(source).getParent();
+		if (parent == null) {
+			return "";
+		}
+
+		return parent.toString().replace(parent.getFileSystem().getSeparator(), ".");
+	}
+
+	/**
+	 * @param width Maximum number of groups per layer, partitions of a layer are packed into groups
+	 *              of roughly the same number of files
+	 * @return Layers of groups of files, every group only depends on the groups of earlier layers
+	 */
+	public List<List<List<Path>>> layers(int width) {
+		var components = components();
+		var componentOf = new HashMap<String, Integer>();
+		for (int i = 0; i < components.size(); i++) {
+			for (var pkg : components.get(i)) {
+				componentOf.put(pkg, i);
+			}
+		}
+
+		// components come out of Tarjan's algorithm in reverse topological order, dependencies first
+		var depth = new int[components.size()];
+		var layerCount = 0;
+		for (int i = 0; i < components.size(); i++) {
+			for (var pkg : components.get(i)) {
+				for (var dep : dependencies.get(pkg)) {
+					var c = componentOf.get(dep);
+					if (c != i) {
+						depth[i] = Math.max(depth[i], depth[c] + 1);
+					}
+				}
+			}
+			layerCount = Math.max(layerCount, depth[i] + 1);
+		}
+
+		var layers = new ArrayList<List<List<Path>>>();
+		for (int layer = 0; layer < layerCount; layer++) {
+			var partitions = new ArrayList<List<Path>>();
+			for (int i = 0; i < components.size(); i++) {
+				if (depth[i] == layer) {
+					var files = new ArrayList<Path>();
+					components.get(i).forEach(pkg -> files.addAll(packages.get(pkg)));
+					partitions.add(files);
+				}
+			}
+			layers.add(pack(partitions, width));
+		}
+
+		return layers;
+	}
+
+	/// Greedily pack the partitions into at most `width` groups, largest partitions first
+	private static List<List<Path>> pack(List<List<Path>> partitions, int width) {
+		partitions.sort(Comparator.comparingInt((List<Path> p) -> p.size()).reversed());
+		var groups = new ArrayList<List<Path>>();
+		for (var partition : partitions) {
+			if (groups.size() < width) {
+				groups.add(new ArrayList<>(partition));
+			} else {
+				groups.stream().min(Comparator.comparingInt(List::size)).get().addAll(partition);
+			}
+		}
+
+		return groups;
+	}
+
+	/// Tarjan's strongly connected components of the package graph
+	private List<List<String>> components() {
+		var index = new HashMap<String, Integer>();
+		var lowlink = new HashMap<String, Integer>();
+		var stack = new ArrayDeque<String>();
+		var onStack = new HashSet<String>();
+		var components = new ArrayList<List<String>>();
+
+		for (var pkg : packages.keySet()) {
+			if (!index.containsKey(pkg)) {
+				connect(pkg, index, lowlink, stack, onStack, components);
+			}
+		}
+
+		return components;
+	}
+
+	/// Iterative version of Tarjan's `strongconnect`, deep package chains would overflow the stack
+	private void connect(String start, Map<String, Integer> index, Map<String, Integer> lowlink,
+		Deque<String> stack, Set<String> onStack, List<List<String>> components) {
+		var work = new ArrayDeque<Map.Entry<String, Iterator<String>>>();
+		visit(start, index, lowlink, stack, onStack, work);
+
+		while (!work.isEmpty()) {
+			var frame = work.peek();
+			var pkg = frame.getKey();
+			var deps = frame.getValue();
+			if (deps.hasNext()) {
+				var dep = deps.next();
+				if (!index.containsKey(dep)) {
+					visit(dep, index, lowlink, stack, onStack, work);
+				} else if (onStack.contains(dep)) {
+					lowlink.put(pkg, Math.min(lowlink.get(pkg), index.get(dep)));
+				}
+				continue;
+			}
+
+			work.pop();
+			if (!work.isEmpty()) {
+				var parent = work.peek().getKey();
+				lowlink.put(parent, Math.min(lowlink.get(parent), lowlink.get(pkg)));
+			}
+
+			if (lowlink.get(pkg).equals(index.get(pkg))) {
+				var component = new ArrayList<String>();
+				String member;
+				do {
+					member = stack.pop();
+					onStack.remove(member);
+					component.add(member);
+				} while (!member.equals(pkg));
+				components.add(component);
+			}
+		}
+	}
+
+	private void visit(String pkg, Map<String, Integer> index, Map<String, Integer> lowlink,
+		Deque<String> stack, Set<String> onStack,
+		Deque<Map.Entry<String, Iterator<String>>> work) {
+		index.put(pkg, index.size());
+		lowlink.put(pkg, index.get(pkg));
+		stack.push(pkg);
+		onStack.add(pkg);
+		work.push(Map.entry(pkg, dependencies.get(pkg).iterator()));
+	}
+}
@@ -0,0 +1,255 @@
+package common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Selects the test classes affected by a change, for `--affected`. The change is either what
+ * differs from the snapshot of the compiled classes taken after the last successful run, or the
+ * sources that changed since a git ref. A test is affected when it references a changed class,
+ * directly or through other classes (see {@link ClassGraph}).
+ *
+ * Changes that can not be traced to classes, like resources, `veles.yaml` or depfiles, select all
+ * the tests, and so does a missing snapshot.
+ */
+public class TestImpact {
+	private static final List<Path> configFiles = List
+		.of(Path.of("veles.yaml"), Path.of(".dep.test"), Path.of(".dep.testcomp"));
+
+	private final ClassGraph graph;
+	private final Map<Path, Path> roots;
+	private final Path testClassesDir;
+	private final Path snapshot;
+	private final String ref;
+	private Map<String, String> current;
+
+	/**
+	 * @param graph          Graph of the classes and the test classes, refreshed after the build
+	 * @param roots          Directories with class files and the source directories they were
+	 *                       compiled from
+	 * @param testClassesDir Directory with the test classes
+	 * @param snapshot       File with the snapshot of the last successful run
+	 * @param ref            Git ref to compare with, or null to compare with the snapshot
+	 */
+	public TestImpact(ClassGraph graph, Map<Path, Path> roots, Path testClassesDir, Path snapshot,
+		String ref) {
+		this.graph = graph;
+		this.roots = roots;
+		this.testClassesDir = testClassesDir;
+		this.snapshot = snapshot;
+		this.ref = ref;
+	}
+
+	/// @return Affected top level test classes matching the filter, null when all of them have to run
+	public List<String> select(Predicate<String> filter) {
+		var changed = ref == null ? changedSinceSnapshot() : changedSinceRef();
+		if (changed == null) {
+			return null;
+		}
+
+		return affectedTests(graph, changed, testClassesDir).stream().filter(filter).toList();
+	}
+
+	/// Take the snapshot that the next run compares with, call once the selected tests passed
+	public void record() {
+		var lines = new ArrayList<String>();
+		snapshot().forEach((file, hash) -> lines.add(hash + " " + file));
+		try {
+			Files.createDirectories(snapshot.getParent());
+			var temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+			Files.write(temp, lines);
+			Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @param changed Classes that were added, modified or removed
+	 * @return Top level test classes that are among the changed classes or reference any of them
+	 */
+	public static List<String> affectedTests(ClassGraph graph, Set<String> changed,
+		Path testClassesDir) {
+		var affected = new HashSet<String>(changed);
+		affected.addAll(graph.dependents(changed, true));
+		var testClasses = graph.classes(testClassesDir);
+		return affected.stream()
+			.filter(testClasses::contains)
+			.map(ClassGraph::topLevel)
+			.distinct()
+			.sorted()
+			.toList();
+	}
+
+	/// @return Changed classes, null when something else changed or there is no snapshot
+	private Set<String> changedSinceSnapshot() {
+		var previous = new HashMap<String, String>();
+		try {
+			for (var line : Files.readAllLines(snapshot)) {
+				var parts = line.split(" ", 2);
+				previous.put(parts[1], parts[0]);
+			}
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+
+		var current = snapshot();
+		var files = new HashSet<String>(previous.keySet());
+		files.addAll(current.keySet());
+		var changed = new HashSet<String>();
+		for (var file : files) {
+			if (current.getOrDefault(file, "").equals(previous.get(file))) {
+				continue;
+			}
+			var className = className(file);
+			if (className == null) {
+				return null;
+			}
+			changed.add(className);
+		}
+
+		return changed;
+	}
+
+	/// @return Classes of the sources that changed since the ref, null when something else changed
+	private Set<String> changedSinceRef() {
+		var paths = new ArrayList<String>();
+		try {
+			paths.addAll(git("diff", "--name-only", "--relative", ref));
+			paths.addAll(git("ls-files", "--others", "--exclude-standard"));
+		} catch (RuntimeException e) {
+			System.out.println("[veles] " + e.getMessage() + ", running all tests");
+			return null;
+		}
+
+		return changedClasses(paths);
+	}
+
+	/// @param paths Changed files, relative to the working directory
+	/// @return Classes compiled from the files, null when something else changed
+	Set<String> changedClasses(List<String> paths) {
+		var sources = new HashMap<Path, Set<String>>();
+		for (var root : roots.keySet()) {
+			for (var name : graph.classes(root)) {
+				var source = graph.get(name).source();
+				if (source != null) {
+					sources.computeIfAbsent(absolute(source), _ -> new HashSet<>()).add(name);
+				}
+			}
+		}
+
+		var changed = new HashSet<String>();
+		for (var changedPath : paths) {
+			var path = absolute(Path.of(changedPath));
+			if (configFiles.stream().anyMatch(config -> absolute(config).equals(path))) {
+				return null;
+			}
+			if (roots.values().stream().noneMatch(dir -> path.startsWith(absolute(dir)))) {
+				continue;
+			}
+			if (sources.containsKey(path)) {
+				changed.addAll(sources.get(path));
+			} else if (!path.toString().endsWith(".java") || Files.exists(path)) {
+				// a resource, also a deleted one, or a source without classes, e.g. package-info.java
+				return null;
+			}
+			// deleted sources leave no classes behind, their dependents would not compile
+		}
+
+		return changed;
+	}
+
+	/// Hashes of all the files in the class directories and of the configuration
+	private Map<String, String> snapshot() {
+		if (current != null) {
+			return current;
+		}
+
+		var hashes = new TreeMap<String, String>();
+		try {
+			for (var root : roots.keySet()) {
+				if (!Files.exists(root)) {
+					continue;
+				}
+				try (var files = Files.walk(root)) {
+					for (var file : files.filter(Files::isRegularFile).toList()) {
+						hashes.put(file.toString(), hash(Files.readAllBytes(file)));
+					}
+				}
+			}
+			for (var config : configFiles) {
+				if (Files.exists(config)) {
+					hashes.put("@" + config, hash(Files.readAllBytes(config)));
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		current = hashes;
+		return hashes;
+	}
+
+	/// @return Binary name of the class file, null if it is not a class file of the class roots
+	private String className(String file) {
+		if (!file.endsWith(".class")) {
+			return null;
+		}
+		var path = Path.of(file);
+		for (var root : roots.keySet()) {
+			if (path.startsWith(root)) {
+				return ClassGraph.className(root.relativize(path));
+			}
+		}
+
+		return null;
+	}
+
+	private static Path absolute(Path path) {
+		return path.toAbsolutePath().normalize();
+	}
+
+	private static List<String> git(String... args) {
+		var command = new ArrayList<String>();
+		command.add("git");
+		command.addAll(List.of(args));
+		try {
+			var process = new ProcessBuilder(command)
+				.redirectError(ProcessBuilder.Redirect.DISCARD)
+				.start();
+			var output = new String(process.getInputStream().readAllBytes(), UTF_8);
+			if (process.waitFor() != 0) {
+				throw new RuntimeException("git " + String.join(" ", args) + " failed");
+			}
+			return output.lines().filter(line -> !line.isBlank()).toList();
+		} catch (IOException e) {
+			throw new RuntimeException("git is not available");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("git was interrupted");
+		}
+	}
+
+	private static String hash(byte[] content) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,324 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/**
+ * Splits test classes across forked JVMs, for `--forks`. The shards are balanced by how long each
+ * class took in the earlier runs, which is read from the open test reports (the
+ * `junit-platform-events-*.xml` files) and kept in a file of its own, because the reports are
+ * deleted by the clean step. Classes that never ran are assumed to take the average.
+ *
+ * Every fork writes its reports into a directory of its own, {@link #merge(List, Path)} moves them
+ * into the directory a single JVM would have written to, and combines the legacy XML reports that
+ * every fork writes under the same name.
+ */
+public class TestShards {
+	private static final Pattern classId = Pattern.compile("\\[class:([^\\]]+)\\]$");
+	private static final long defaultMillis = 1000;
+
+	private final Path timesFile;
+
+	/// @param timesFile File with the durations of the test classes from the earlier runs
+	public TestShards(Path timesFile) {
+		this.timesFile = timesFile;
+	}
+
+	/// @return Top level classes in the directory whose name matches the filter
+	public static List<String> discover(Path testClassesDir, Predicate<String> filter) {
+		if (!Files.exists(testClassesDir)) {
+			return List.of();
+		}
+
+		try (var files = Files.walk(testClassesDir)) {
+			return files.filter(f -> f.toString().endsWith(".class"))
+				.map(f -> ClassGraph.className(testClassesDir.relativize(f)))
+				.filter(name -> !name.contains("$") && filter.test(name))
+				.sorted()
+				.toList();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Longest known duration first, each class goes to the shard that is done the soonest.
+	 *
+	 * @return At most `forks` shards, none of them empty
+	 */
+	public List<List<String>> split(List<String> classes, int forks) {
+		var times = load();
+		var average = times.isEmpty()
+			? defaultMillis
+			: times.values().stream().mapToLong(Long::longValue).sum() / times.size();
+
+		var shards = new ArrayList<List<String>>();
+		var totals = new long[Math.max(1, Math.min(forks, classes.size()))];
+		for (int i = 0; i < totals.length; i++) {
+			shards.add(new ArrayList<>());
+		}
+		var longestFirst = classes.stream()
+			.sorted(
+				Comparator.comparingLong((String c) -> -times.getOrDefault(c, average))
+					.thenComparing(Comparator.naturalOrder())
+			)
+			.toList();
+		for (var testClass : longestFirst) {
+			var soonest = 0;
+			for (int i = 1; i < totals.length; i++) {
+				if (totals[i] < totals[soonest]) {
+					soonest = i;
+				}
+			}
+			shards.get(soonest).add(testClass);
+			totals[soonest] += times.getOrDefault(testClass, average);
+		}
+		shards.removeIf(List::isEmpty);
+
+		return shards;
+	}
+
+	/// Add the durations from the open test reports written after `since` to the known ones
+	public void record(Path reportsDir, Instant since) {
+		if (!Files.exists(reportsDir)) {
+			return;
+		}
+
+		var times = load();
+		try (var files = Files.list(reportsDir)) {
+			for (var report : files.toList()) {
+				var name = report.getFileName().toString();
+				var recent = Files.getLastModifiedTime(report).toInstant().isAfter(since);
+				if (recent && name.startsWith("junit-platform-events") && name.endsWith(".xml")) {
+					times.putAll(durations(report));
+				}
+			}
+		} catch (IOException e) {
+			// the durations only balance the shards
+			return;
+		}
+
+		var lines = new ArrayList<String>();
+		new TreeMap<>(times).forEach((testClass, millis) -> lines.add(millis + " " + testClass));
+		try {
+			Files.createDirectories(timesFile.getParent());
+			Files.write(timesFile, lines);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Move the reports of the forks into the reports directory. The legacy reports, that every fork
+	 * writes under the same name, are combined into one, other files that clash get the number of
+	 * the fork appended.
+	 */
+	public static void merge(List<Path> forkDirs, Path reportsDir) {
+		try {
+			Files.createDirectories(reportsDir);
+			var legacy = new LinkedHashMap<String, List<Path>>();
+			for (int fork = 0; fork < forkDirs.size(); fork++) {
+				var forkDir = forkDirs.get(fork);
+				if (!Files.exists(forkDir)) {
+					continue;
+				}
+				try (var files = Files.walk(forkDir)) {
+					for (var file : files.filter(Files::isRegularFile).toList()) {
+						var relative = forkDir.relativize(file);
+						var name = relative.toString();
+						if (name.startsWith("TEST-") && name.endsWith(".xml")) {
+							legacy.computeIfAbsent(name, _ -> new ArrayList<>()).add(file);
+							continue;
+						}
+
+						var target = reportsDir.resolve(relative);
+						if (Files.exists(target)) {
+							target = target.resolveSibling(suffixed(file.getFileName().toString(), fork));
+						}
+						Files.createDirectories(target.getParent());
+						Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+					}
+				}
+			}
+
+			for (var reports : legacy.entrySet()) {
+				combine(reports.getValue(), reportsDir.resolve(reports.getKey()));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		forkDirs.forEach(FilesUtil::deleteDir);
+	}
+
+	/// @return Number of tests in the legacy XML reports of the directory
+	public static long testCount(Path reportsDir) {
+		var count = 0L;
+		try (var files = Files.list(reportsDir)) {
+			for (var report : files.toList()) {
+				var name = report.getFileName().toString();
+				if (name.startsWith("TEST-") && name.endsWith(".xml")) {
+					count += tests(report);
+				}
+			}
+		} catch (IOException e) {
+			return 0;
+		}
+
+		return count;
+	}
+
+	/// Durations of the test classes in an open test report, from started until finished. The
+	/// reports can get large, so they are streamed instead of parsed into a document.
+	private static Map<String, Long> durations(Path report) {
+		var durations = new HashMap<String, Long>();
+		var classes = new HashMap<String, String>();
+		var startTimes = new HashMap<String, Instant>();
+		try (var in = Files.newInputStream(report)) {
+			var reader = XMLInputFactory.newFactory().createXMLStreamReader(in);
+			String startedId = null;
+			Instant startedAt = null;
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				switch (reader.getLocalName()) {
+					case "started" -> {
+						startedId = reader.getAttributeValue(null, "id");
+						startedAt = Instant.parse(reader.getAttributeValue(null, "time"));
+					}
+					case "uniqueId" -> {
+						// the first one in the metadata of a started event identifies what started
+						var matcher = classId.matcher(reader.getElementText().strip());
+						if (startedId != null && matcher.find()) {
+							classes.put(startedId, matcher.group(1));
+							startTimes.put(startedId, startedAt);
+						}
+						startedId = null;
+					}
+					case "finished" -> {
+						var id = reader.getAttributeValue(null, "id");
+						if (classes.containsKey(id)) {
+							var end = Instant.parse(reader.getAttributeValue(null, "time"));
+							var took = Duration.between(startTimes.get(id), end).toMillis();
+							durations.put(classes.get(id), took);
+						}
+					}
+					default -> {
+					}
+				}
+			}
+			reader.close();
+		} catch (IOException | XMLStreamException | RuntimeException e) {
+			// unreadable report, e.g. the JVM was killed while writing it
+		}
+
+		return durations;
+	}
+
+	/// Combine legacy XML reports, the counts are summed and the time is the longest of the forks
+	private static void combine(List<Path> reports, Path target) {
+		var merged = parse(reports.getFirst());
+		var suite = merged.getDocumentElement();
+		for (var report : reports.subList(1, reports.size())) {
+			var other = parse(report).getDocumentElement();
+			for (var count : List.of("tests", "skipped", "failures", "errors")) {
+				var sum = number(suite, count) + number(other, count);
+				suite.setAttribute(count, String.valueOf((long) sum));
+			}
+			var time = Math.max(number(suite, "time"), number(other, "time"));
+			suite.setAttribute("time", String.valueOf(time));
+
+			var testcases = other.getElementsByTagName("testcase");
+			for (int i = 0; i < testcases.getLength(); i++) {
+				suite.appendChild(merged.importNode(testcases.item(i), true));
+			}
+		}
+
+		try {
+			var transformer = TransformerFactory.newInstance().newTransformer();
+			transformer.transform(new DOMSource(merged), new StreamResult(target.toFile()));
+		} catch (TransformerException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static double number(Element element, String attribute) {
+		try {
+			return Double.parseDouble(element.getAttribute(attribute));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/// Count of the root element of a legacy report, without reading the rest of it
+	private static long tests(Path report) {
+		try (var in = Files.newInputStream(report)) {
+			var reader = XMLInputFactory.newFactory().createXMLStreamReader(in);
+			try {
+				reader.nextTag();
+				var tests = reader.getAttributeValue(null, "tests");
+				return tests == null ? 0 : (long) Double.parseDouble(tests);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException | XMLStreamException | NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static Document parse(Path xml) {
+		try {
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xml.toFile());
+		} catch (ParserConfigurationException | SAXException | IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// `report.xml` -> `report-2.xml` for the second fork
+	private static String suffixed(String name, int fork) {
+		var dot = name.lastIndexOf('.');
+		var suffix = "-" + (fork + 1);
+		return dot == -1 ? name + suffix : name.substring(0, dot) + suffix + name.substring(dot);
+	}
+
+	private Map<String, Long> load() {
+		var times = new HashMap<String, Long>();
+		try {
+			for (var line : Files.readAllLines(timesFile)) {
+				var parts = line.split(" ", 2);
+				times.put(parts[1], Long.parseLong(parts[0]));
+			}
+		} catch (IOException | RuntimeException e) {
+			// no durations yet
+		}
+
+		return times;
+	}
+}
@@ -0,0 +1,176 @@
+package common;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records spans of what veles is doing and writes them as a Chrome trace-event JSON file when veles
+ * exits, which can be opened in `chrome://tracing`, Perfetto or Speedscope. Tracing is off until
+ * {@link #start(Path)} is called, spans created before that are no-ops.
+ *
+ * Usage: `try (var _ = Trace.span("deps", "resolve dependencies")) { ... }`
+ */
+public class Trace {
+	private static final Span disabled = new Span(null, null, 0, 0);
+	private static final ConcurrentLinkedQueue<String> events = new ConcurrentLinkedQueue<>();
+	private static final Map<Long, String> threads = new LinkedHashMap<>();
+	/// Spans that were not closed yet, ended when veles exits in the middle of them
+	private static final Set<Span> open = ConcurrentHashMap.newKeySet();
+	private static volatile Path file;
+	private static long origin;
+
+	/// Enable tracing, the trace is written to the file when the JVM shuts down
+	public static synchronized void start(Path traceFile) {
+		if (file != null) {
+			return;
+		}
+
+		origin = System.nanoTime();
+		file = traceFile;
+		Runtime.getRuntime().addShutdownHook(new Thread(Trace::write, "veles-trace"));
+	}
+
+	public static boolean isEnabled() {
+		return file != null;
+	}
+
+	/**
+	 * @param category Groups the spans in the viewer, e.g. `process`, `deps` or `step`
+	 * @param name     What is being done
+	 * @return Span that ends when closed, or when {@link Span#end(int)} is called with the exit code
+	 */
+	public static Span span(String category, String name) {
+		if (file == null) {
+			return disabled;
+		}
+
+		var thread = Thread.currentThread();
+		synchronized (threads) {
+			threads.putIfAbsent(thread.threadId(), thread.getName());
+		}
+		var span = new Span(category, name, thread.threadId(), micros(System.nanoTime()));
+		open.add(span);
+		return span;
+	}
+
+	public static class Span implements AutoCloseable {
+		private final String category;
+		private final String name;
+		private final long thread;
+		private final long start;
+		private final Map<String, String> args = new LinkedHashMap<>();
+		private boolean ended;
+
+		private Span(String category, String name, long thread, long start) {
+			this.category = category;
+			this.name = name;
+			this.thread = thread;
+			this.start = start;
+		}
+
+		/// Attach an argument, shown in the viewer when the span is selected
+		public synchronized Span arg(String key, Object value) {
+			if (name != null) {
+				args.put(key, String.valueOf(value));
+			}
+			return this;
+		}
+
+		/// End the span with the exit code of what it measured, e.g. a forked process
+		public void end(int exitCode) {
+			arg("exit code", exitCode);
+			close();
+		}
+
+		@Override
+		public synchronized void close() {
+			if (name == null || ended) {
+				return;
+			}
+
+			ended = true;
+			open.remove(this);
+			var json = new StringBuilder();
+			json.append("{\"name\":").append(quote(name))
+				.append(",\"cat\":").append(quote(category))
+				.append(",\"ph\":\"X\",\"pid\":1,\"tid\":").append(thread)
+				.append(",\"ts\":").append(start)
+				.append(",\"dur\":").append(micros(System.nanoTime()) - start)
+				.append(",\"args\":{");
+			var first = true;
+			for (var arg : args.entrySet()) {
+				json.append(first ? "" : ",").append(quote(arg.getKey())).append(":")
+					.append(quote(arg.getValue()));
+				first = false;
+			}
+			json.append("}}");
+			events.add(json.toString());
+		}
+	}
+
+	private static long micros(long nanos) {
+		return (nanos - origin) / 1_000;
+	}
+
+	private static String quote(String value) {
+		var quoted = new StringBuilder("\"");
+		for (var c : value.toCharArray()) {
+			switch (c) {
+				case '"' -> quoted.append("\\\"");
+				case '\\' -> quoted.append("\\\\");
+				case '\n' -> quoted.append("\\n");
+				case '\r' -> quoted.append("\\r");
+				case '\t' -> quoted.append("\\t");
+				default -> {
+					if (c < 0x20) {
+						quoted.append("\\u%04x".formatted((int) c));
+					} else {
+						quoted.append(c);
+					}
+				}
+			}
+		}
+
+		return quoted.append('"').toString();
+	}
+
+	private static void write() {
+		// e.g. the failing step and the process it ran, when veles exits with System.exit
+		for (var span : open) {
+			span.arg("ended", "at exit").close();
+		}
+
+		try {
+			var parent = file.toAbsolutePath().getParent();
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+			try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+				writer.write("{\"traceEvents\":[\n");
+				writer.write(
+					"{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"veles\"}}"
+				);
+				synchronized (threads) {
+					for (var thread : threads.entrySet()) {
+						writer.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":"
+							+ thread.getKey() + ",\"args\":{\"name\":" + quote(thread.getValue()) + "}}");
+					}
+				}
+				for (var event : events) {
+					writer.write(",\n" + event);
+				}
+				writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+			}
+			System.err.println("[veles] Trace written to " + file);
+		} catch (IOException e) {
+			System.err.println("[veles] Could not write the trace to " + file + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import agent.ToolWorker;
+
+/**
+ * Long-lived JVMs of the tools that a watch session runs over and over, see {@link ToolWorker} for
+ * the protocol. A worker is keyed by the hash of the command that starts it, i.e. the JDK, the JVM
+ * options and the classpath of the tool, so a change of any of them starts a new one.
+ *
+ * Workers are stopped once they were idle for the given timeout. They also exit on their own when
+ * veles does, because their stdin is closed.
+ */
+public class Workers implements AutoCloseable {
+	private final Duration idleTimeout;
+	private final Map<String, Worker> workers = new HashMap<>();
+	private final ScheduledExecutorService reaper = Executors
+		.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("veles-workers").factory());
+	private long nextId;
+
+	/// Put in the frames once the worker closed its stdout, the protocol has no empty lines
+	private static final String closed = "";
+
+	private static class Worker {
+		private final String key;
+		private final Process process;
+		private final Writer requests;
+		/// Filled by a reader thread, so that waiting for a frame can be interrupted
+		private final BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+		private long lastUsed = System.nanoTime();
+
+		private Worker(String key, Process process) {
+			this.key = key;
+			this.process = process;
+			this.requests = new OutputStreamWriter(process.getOutputStream(), UTF_8);
+			var stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8));
+			Thread.ofVirtual().name("veles-worker-" + process.pid()).start(() -> {
+				try (stdout) {
+					String line;
+					while ((line = stdout.readLine()) != null) {
+						frames.add(line);
+					}
+				} catch (IOException e) {
+					// the worker was destroyed
+				}
+				frames.add(closed);
+			});
+		}
+	}
+
+	public Workers(Duration idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		var period = Math.max(1, idleTimeout.toSeconds() / 4);
+		reaper.scheduleAtFixedRate(this::stopIdle, period, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Run the tool in a worker started by `jvm`, starting one if there is none yet. What the tool
+	 * prints is copied to our stdout and stderr.
+	 *
+	 * @param jvm  Java executable and its options, with `agent.ToolWorker` on the classpath
+	 * @param tool Class of the tool, see {@link ToolWorker}
+	 * @param args Arguments of the tool
+	 * @return Exit code of the tool, or -1 if the worker died while running it
+	 * @throws CancellationException When the thread was interrupted, the worker is destroyed
+	 */
+	public synchronized int execute(List<String> jvm, String tool, List<String> args) {
+		var command = new ArrayList<>(jvm);
+		command.add(ToolWorker.class.getName());
+		command.add(tool);
+		var worker = workers.computeIfAbsent(key(command), key -> start(key, command));
+		var id = ++nextId;
+
+		try (var span = Trace.span("worker", tool).arg("pid", worker.process.pid())) {
+			var request = args.stream().map(ToolWorker::quote).collect(Collectors.joining(","));
+			worker.requests.write("{\"id\":" + id + ",\"args\":[" + request + "]}\n");
+			worker.requests.flush();
+
+			String line;
+			while (!(line = worker.frames.take()).equals(closed)) {
+				var frame = ToolWorker.parse(line);
+				if (!Long.valueOf(id).equals(frame.get("id"))) {
+					// printed by threads an earlier run left behind, after that run exited. While a run
+					// is in progress, their output carries its id and can't be told apart from its own.
+					continue;
+				}
+				if (frame.containsKey("out")) {
+					System.out.println(frame.get("out"));
+				} else if (frame.containsKey("err")) {
+					System.err.println(frame.get("err"));
+				} else if (frame.get("exit") instanceof Long exitCode) {
+					worker.lastUsed = System.nanoTime();
+					span.end(exitCode.intValue());
+					return exitCode.intValue();
+				}
+			}
+		} catch (IOException e) {
+			// the worker died, the frames read so far were printed
+		} catch (InterruptedException e) {
+			destroy(worker);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Cancelled " + tool);
+		}
+
+		System.err.println("[veles] Worker of " + tool + " exited while running, it will be restarted");
+		stop(worker);
+		return -1;
+	}
+
+	/// Stop all the workers
+	@Override
+	public synchronized void close() {
+		reaper.shutdownNow();
+		new ArrayList<>(workers.values()).forEach(this::stop);
+	}
+
+	private Worker start(String key, List<String> command) {
+		try {
+			var process = new ProcessBuilder(command)
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+			return new Worker(key, process);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private synchronized void stopIdle() {
+		var idleSince = System.nanoTime() - idleTimeout.toNanos();
+		workers.values()
+			.stream()
+			.filter(w -> w.lastUsed - idleSince < 0 || !w.process.isAlive())
+			.toList()
+			.forEach(this::stop);
+	}
+
+	private void stop(Worker worker) {
+		workers.remove(worker.key);
+		try {
+			// closing stdin lets the worker exit on its own
+			worker.requests.close();
+		} catch (IOException e) {
+			// already gone
+		}
+		try {
+			if (!worker.process.waitFor(5, TimeUnit.SECONDS)) {
+				worker.process.destroy();
+			}
+		} catch (InterruptedException e) {
+			worker.process.destroy();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/// Stop a worker in the middle of a run, it would only exit once the run is done otherwise
+	private void destroy(Worker worker) {
+		workers.remove(worker.key);
+		worker.process.descendants().forEach(ProcessHandle::destroy);
+		worker.process.destroy();
+	}
+
+	private static String key(List<String> command) {
+		try {
+			var digest = MessageDigest.getInstance("SHA-256");
+			digest.update(String.join("\0", command).getBytes(UTF_8));
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -98,9 +98,13 @@ public class Zip implements AutoCloseable {
 	}
 
 	public void add(String path, String fileContent) {
+		add(path, fileContent.getBytes());
+	}
+
+	public void add(String path, byte[] content) {
 		try {
 			zos.putNextEntry(new ZipEntry(path));
-			zos.write(fileContent.getBytes());
+			zos.write(content);
 			zos.closeEntry();
 		} catch (ZipException e) {
 			if (!e.getMessage().contains("duplicate entry")) {
@@ -6,13 +6,13 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Consumer;
-import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import org.yaml.snakeyaml.DumperOptions;
@@ -22,7 +22,10 @@ import org.yaml.snakeyaml.constructor.Constructor;
 import org.yaml.snakeyaml.nodes.Tag;
 import org.yaml.snakeyaml.representer.Representer;
 
+import common.FileIndex;
+import common.MainScanner;
 import common.Paths;
+import common.Trace;
 import config.ConfigDoc.ConfDependency;
 import config.ConfigDoc.ConfDependency.Scope;
 import config.ConfigDoc.Gav;
@@ -30,8 +33,6 @@ import config.ConfigDoc.Settings.FormatIndent;
 import config.ConfigDoc.Settings.Formatter;
 
 public class Config {
-	private static Pattern mainMethodPattern = Pattern
-		.compile("^\\s*(?:public\\s+)?(?:static\\s+)?void\\s+main\\s*\\([^)]*\\)", Pattern.MULTILINE);
 	private static Yaml yaml;
 	private static ConfigDoc config;
 	private static Path sourceDir;
@@ -53,7 +54,7 @@ public class Config {
 			representerOptions
 		);
 
-		try {
+		try (var _ = Trace.span("config", "load veles.yaml")) {
 			Map<String, Object> configYaml = yaml.load(Files.readString(Path.of("veles.yaml")));
 			config = parse(configYaml);
 		} catch (NoSuchFileException e) {
@@ -106,6 +107,11 @@ public class Config {
 		return Path.of("target");
 	}
 
+	/// @return Directory for veles' own bookkeeping (agents, caches, indexes) inside the output dir
+	public static Path outputVelesDir() {
+		return outputDir().resolve("veles");
+	}
+
 	public static Path outputTestClassesDir() {
 		return outputDir().resolve("test-classes");
 	}
@@ -150,6 +156,41 @@ public class Config {
 		return config.settings.compiler.enablePreview;
 	}
 
+	/// @return Classes that are compiled in reachable mode on top of the entrypoint
+	public static List<String> getCompileRoots() {
+		return config.settings.compiler.roots;
+	}
+
+	/// @return Whether resources are hard linked into the output instead of copied
+	public static boolean linkResources() {
+		return config.settings.resources.link;
+	}
+
+	/// @return Globs of the resources that get a pre-compressed `.gz` variant
+	public static List<String> compressedResources() {
+		return config.settings.resources.compress;
+	}
+
+	/// @return Peak RSS in megabytes above which a process gets a warning, 0 when disabled
+	public static int processRssWarning() {
+		return config.settings.processes.warnRss;
+	}
+
+	/// @return CPU time in seconds above which a process gets a warning, 0 when disabled
+	public static int processCpuWarning() {
+		return config.settings.processes.warnCpu;
+	}
+
+	/// Whether the JDK tools veles starts use AOT caches, see {@link common.AotCache}
+	public static boolean toolAotCaches() {
+		return config.settings.processes.aot;
+	}
+
+	/// @return How long a tool worker is kept without requests, zero when workers are disabled
+	public static Duration workerIdleTimeout() {
+		return Duration.ofSeconds(Math.max(0, config.settings.processes.workerIdle));
+	}
+
 	@SuppressWarnings("unchecked")
 	public static void addDependency(ConfDependency dep) {
 		updateConfig(config -> {
@@ -305,18 +346,14 @@ public class Config {
 	}
 
 	private static Optional<Path> findFileWithMain() {
-		return Paths.allNonBuildVisible()
-			.filter(p -> p.toString().endsWith(".java"))
-			.parallel()
-			.filter(p -> {
-				try {
-					var file = Files.readString(p);
-					return mainMethodPattern.matcher(file).find();
-				} catch (Exception e) {
-					return false;
-				}
-			})
-			.findAny();
+		return new MainScanner(outputVelesDir().resolve("main-scan.idx")).find(
+			() -> FileIndex.project()
+				.files()
+				.stream()
+				.filter(e -> e.kind() == FileIndex.Kind.JAVA)
+				.map(FileIndex.Entry::path)
+				.toList()
+		);
 	}
 
 	public static int getRelease() {
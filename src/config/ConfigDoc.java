@@ -56,6 +56,8 @@ public class ConfigDoc {
 		public Tests test = new Tests();
 		public Format format = new Format();
 		public Native _native = new Native();
+		public Resources resources = new Resources();
+		public Processes processes = new Processes();
 
 		public static Settings parse(Object obj) {
 			var target = new Settings();
@@ -76,6 +78,14 @@ public class ConfigDoc {
 				if (nativeVal != null && nativeVal instanceof Map _native) {
 					target._native = Native.parse(_native);
 				}
+				var resourcesVal = m.get("resources");
+				if (resourcesVal != null && resourcesVal instanceof Map resources) {
+					target.resources = Resources.parse(resources);
+				}
+				var processesVal = m.get("processes");
+				if (processesVal != null && processesVal instanceof Map processes) {
+					target.processes = Processes.parse(processes);
+				}
 				var formatVal = m.get("format");
 				if (formatVal != null && formatVal instanceof Map format) {
 					target.format = Format.parse(format);
@@ -186,6 +196,7 @@ public class ConfigDoc {
 			public int release;
 			public String entrypoint = "App";
 			public boolean enablePreview = false;
+			public List<String> roots = new ArrayList<>();
 
 			public static Compiler parse(Object obj) {
 				var target = new Compiler();
@@ -202,6 +213,14 @@ public class ConfigDoc {
 					if (enablePreviewVal != null && enablePreviewVal instanceof Boolean val) {
 						target.enablePreview = val;
 					}
+					var rootsVal = m.get("roots");
+					if (rootsVal != null && rootsVal instanceof List val) {
+						for (var i : val) {
+							if (i instanceof String root) {
+								target.roots.add(root);
+							}
+						}
+					}
 				}
 
 				return target;
@@ -209,7 +228,73 @@ public class ConfigDoc {
 
 			public String toString() {
 				return "{release: " + release + ", entrypoint: " + entrypoint + ", enablePreview: "
-					+ enablePreview + "}";
+					+ enablePreview + ", roots: " + roots + "}";
+			}
+		}
+
+		public static class Resources {
+			public boolean link = false;
+			public List<String> compress = new ArrayList<>();
+
+			public static Resources parse(Object obj) {
+				var target = new Resources();
+				if (obj != null && obj instanceof Map m) {
+					var linkVal = m.get("link");
+					if (linkVal != null && linkVal instanceof Boolean val) {
+						target.link = val;
+					}
+					var compressVal = m.get("compress");
+					if (compressVal != null && compressVal instanceof List val) {
+						for (var i : val) {
+							if (i instanceof String glob) {
+								target.compress.add(glob);
+							}
+						}
+					}
+				}
+
+				return target;
+			}
+
+			public String toString() {
+				return "{" + "link: " + link + ", " + "compress: " + compress + "}";
+			}
+		}
+
+		/// Thresholds above which a warning is printed for a process veles started, 0 disables them
+		public static class Processes {
+			public int warnRss = 0;
+			public int warnCpu = 0;
+			public int workerIdle = 600;
+			public boolean aot = true;
+
+			public static Processes parse(Object obj) {
+				var target = new Processes();
+				if (obj != null && obj instanceof Map m) {
+					var warnRssVal = m.get("warnRss");
+					if (warnRssVal != null && warnRssVal instanceof Number val) {
+						target.warnRss = val.intValue();
+					}
+					var warnCpuVal = m.get("warnCpu");
+					if (warnCpuVal != null && warnCpuVal instanceof Number val) {
+						target.warnCpu = val.intValue();
+					}
+					var workerIdleVal = m.get("workerIdle");
+					if (workerIdleVal != null && workerIdleVal instanceof Number val) {
+						target.workerIdle = val.intValue();
+					}
+					var aotVal = m.get("aot");
+					if (aotVal != null && aotVal instanceof Boolean val) {
+						target.aot = val;
+					}
+				}
+
+				return target;
+			}
+
+			public String toString() {
+				return "{" + "warnRss: " + warnRss + ", " + "warnCpu: " + warnCpu + ", " + "workerIdle: "
+					+ workerIdle + ", " + "aot: " + aot + "}";
 			}
 		}
 
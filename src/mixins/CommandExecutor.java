@@ -1,10 +1,34 @@
 package mixins;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import common.AotCache;
+import common.BuildHistory;
+import common.OutputPump;
+import common.ProcessUsage;
+import common.ProcessUsage.Usage;
+import common.Trace;
+import config.Config;
 import picocli.CommandLine.ArgGroup;
 import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Spec;
@@ -21,23 +45,214 @@ public class CommandExecutor {
 		}
 	};
 
+	/// Number of last output lines kept per quiet process
+	private static final int tailLines = 200;
+	private BiConsumer<Process, OutputPump> outputListener = (_, _) -> {
+	};
+	/// Weak, so that the pumps of processes nobody holds anymore are dropped with them
+	private final Map<Process, OutputPump> outputs = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private final Map<Process, CompletableFuture<Void>> accounting = new ConcurrentHashMap<>();
+	private final List<Finished> finished = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * @param name     File name of the executable
+	 * @param exitCode Exit code of the process
+	 * @param took     Wall time from the start until the exit
+	 * @param usage    Resources used by the process and its descendants
+	 */
+	public record Finished(String name, int exitCode, Duration took, Usage usage) {
+	}
+
+	/**
+	 * @param label     Prefix of the output lines of the process
+	 * @param command   Command that was executed
+	 * @param exitCode  Exit code of the process, -1 when it never started
+	 * @param took      Wall time from the start until the exit
+	 * @param cancelled Whether the process was stopped or skipped because another one failed
+	 */
+	public record Result(String label, List<String> command, int exitCode, Duration took,
+		boolean cancelled) {
+		public boolean failed() {
+			return exitCode != 0 && !cancelled;
+		}
+	}
+
 	@ArgGroup(heading = "Common:\n", order = 1000)
 	public CommonOptions opts = new CommonOptions();
 
+	/**
+	 * Execute the command and wait for it to finish. If the waiting thread is interrupted, the
+	 * process (and its children) are destroyed and {@link CancellationException} is thrown, so that
+	 * in-flight builds can be preempted.
+	 */
 	public int executeBlocking(List<String> command) {
+		Process process;
 		try {
-			var process = execute(command);
+			process = execute(command);
 			if (process == null) {
 				return 0;
 			}
-
-			return process.waitFor();
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
 		}
+
+		try {
+			var code = process.waitFor();
+			settle(process);
+			var output = outputs.get(process);
+			if (output != null && code != 0 && !output.hasListeners()) {
+				reportFailure(command, code, output);
+			}
+			return code;
+		} catch (InterruptedException e) {
+			destroy(process);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Cancelled " + command.getFirst());
+		}
 	}
 
 	public Process execute(List<String> command) {
+		return execute(command, quiet, outputListener);
+	}
+
+	/**
+	 * Execute the commands concurrently, at most `concurrency` of them at a time, and wait for all
+	 * of them to finish. Their output is printed line by line, prefixed with the name of the
+	 * executable (numbered when there are several of the same), unless quiet.
+	 *
+	 * @param failFast Stop the running processes and skip the waiting ones once any of them fails
+	 * @return Results in the order of the commands
+	 */
+	public List<Result> executeAll(List<List<String>> commands, int concurrency, boolean failFast) {
+		var labels = labels(commands);
+		var slots = new Semaphore(Math.max(1, concurrency));
+		var failed = new AtomicBoolean();
+		var running = ConcurrentHashMap.<Process>newKeySet();
+		var pool = Executors.newVirtualThreadPerTaskExecutor();
+		try {
+			var futures = new ArrayList<Future<Result>>();
+			for (int i = 0; i < commands.size(); i++) {
+				var label = labels.get(i);
+				var command = commands.get(i);
+				futures.add(pool.submit(() -> {
+					return executeSlot(label, command, slots, failFast, failed, running);
+				}));
+			}
+
+			var results = new ArrayList<Result>();
+			for (var future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			// the slots destroy their processes when interrupted
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Cancelled " + String.join(", ", labels));
+		} catch (ExecutionException e) {
+			pool.shutdownNow();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private Result executeSlot(String label, List<String> command, Semaphore slots,
+		boolean failFast, AtomicBoolean failed, Set<Process> running) {
+		Process process = null;
+		try {
+			slots.acquire();
+			try {
+				if (failed.get()) {
+					return new Result(label, command, -1, Duration.ZERO, true);
+				}
+
+				var started = System.nanoTime();
+				BiConsumer<Process, OutputPump> prefixed = (_, output) -> {
+					output.subscribe(lines -> printPrefixed(label, lines));
+				};
+				process = execute(command, true, quiet ? outputListener : prefixed);
+				if (process == null) {
+					return new Result(label, command, 0, Duration.ZERO, false);
+				}
+				running.add(process);
+				if (failed.get()) {
+					// started while another one failed, after the running ones were destroyed
+					destroy(process);
+				}
+
+				var code = process.waitFor();
+				running.remove(process);
+				settle(process);
+				var took = Duration.ofNanos(System.nanoTime() - started);
+				if (code == 0) {
+					return new Result(label, command, code, took, false);
+				}
+				// with fail fast, only the first failure is real, the rest were destroyed by it
+				var cancelled = failFast && !failed.compareAndSet(false, true);
+				if (!cancelled) {
+					if (failFast) {
+						running.forEach(CommandExecutor::destroy);
+					}
+					var output = outputs.get(process);
+					if (output != null && !output.hasListeners()) {
+						reportFailure(command, code, output);
+					}
+				}
+				return new Result(label, command, code, took, cancelled);
+			} finally {
+				slots.release();
+			}
+		} catch (InterruptedException e) {
+			if (process != null) {
+				destroy(process);
+			}
+			return new Result(label, command, -1, Duration.ZERO, true);
+		}
+	}
+
+	/// Name of the executable, numbered when several commands run the same one
+	private static List<String> labels(List<List<String>> commands) {
+		var names = commands.stream()
+			.map(command -> Path.of(command.getFirst()).getFileName().toString())
+			.toList();
+		var counts = names.stream().collect(Collectors.groupingBy(n -> n, Collectors.counting()));
+		var seen = new HashMap<String, Integer>();
+		return names.stream()
+			.map(name -> counts.get(name) == 1 ? name : name + "-" + seen.merge(name, 1, Integer::sum))
+			.toList();
+	}
+
+	private static void printPrefixed(String label, List<OutputPump.Line> lines) {
+		// whole batches at once, so that the lines of one read are not interleaved with others
+		synchronized (CommandExecutor.class) {
+			for (var line : lines) {
+				(line.error() ? System.err : System.out).println("[" + label + "] " + line.text());
+			}
+		}
+	}
+
+	private static void destroy(Process process) {
+		process.descendants().forEach(ProcessHandle::destroy);
+		process.destroy();
+	}
+
+	/// Wait for the output and the accounting of the process, so that they are reported before
+	/// whatever comes next
+	private void settle(Process process) throws InterruptedException {
+		var output = outputs.get(process);
+		if (output != null) {
+			output.await(Duration.ofSeconds(5));
+		}
+		var accounted = accounting.remove(process);
+		if (accounted != null) {
+			accounted.join();
+		}
+	}
+
+	private Process execute(List<String> command, boolean quiet,
+		BiConsumer<Process, OutputPump> outputListener) {
 		if (opts.verbose || opts.dryRun) {
 			spec.commandLine().getOut().println();
 			spec.commandLine().getOut().println(prettyFormatCommand(command));
@@ -48,22 +263,112 @@ public class CommandExecutor {
 		}
 
 		try {
-			ProcessBuilder builder = new ProcessBuilder().command(command);
+			ProcessBuilder builder = new ProcessBuilder().command(AotCache.claim(command));
 
 			if (!quiet) {
 				builder.inheritIO();
 			}
 
-			return this.processBuilderDecorator.apply(builder);
+			var name = Path.of(command.getFirst()).getFileName().toString();
+			var span = Trace.span("process", name).arg("command", prettyFormatCommand(command));
+			var started = System.nanoTime();
+			var process = this.processBuilderDecorator.apply(builder);
+			span.arg("pid", process.pid());
+			if (quiet) {
+				var output = new OutputPump(tailLines);
+				outputListener.accept(process, output);
+				output.start(process);
+				outputs.put(process, output);
+			}
+			var usage = ProcessUsage.watch(process);
+			var accounted = process.onExit().thenAccept(p -> {
+				var used = usage.stop();
+				var took = Duration.ofNanos(System.nanoTime() - started);
+				span.arg("cpu ms", used.cpu().toMillis())
+					.arg("peak rss", used.peakRss())
+					.arg("read bytes", used.readBytes())
+					.arg("written bytes", used.writtenBytes());
+				account(new Finished(name, p.exitValue(), took, used));
+				span.end(p.exitValue());
+			});
+			accounting.put(process, accounted);
+			// registered after the put, a process that already exited would otherwise stay in the map
+			accounted.whenComplete((_, _) -> accounting.remove(process, accounted));
+			return process;
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
 		}
 	}
 
+	/// Nobody saw the output of the process, so at least its end is shown
+	private void reportFailure(List<String> command, int code, OutputPump output) {
+		var name = Path.of(command.getFirst()).getFileName();
+		System.err.printf("[veles] %s failed with exit code %d, last lines of output:%n", name, code);
+		for (var line : output.tail()) {
+			System.err.println(line.text());
+		}
+	}
+
+	/// @return Output of a process started while quiet, or null when its IO was inherited
+	public OutputPump output(Process process) {
+		return outputs.get(process);
+	}
+
+	/**
+	 * Subscribe to the output of the processes started while quiet, the listener is called after
+	 * the process started, but before its output is read.
+	 */
+	public void onOutput(BiConsumer<Process, OutputPump> outputListener) {
+		this.outputListener = outputListener;
+	}
+
+	private void account(Finished finished) {
+		this.finished.add(finished);
+		BuildHistory.max("peak rss MB", Math.max(0, finished.usage().peakRss()) / (1024 * 1024));
+
+		var rssWarning = Config.processRssWarning();
+		if (rssWarning > 0 && finished.usage().peakRss() > rssWarning * 1024L * 1024L) {
+			System.out.printf(
+				"[veles] Warning: %s peaked at %d MB of resident memory, above the %d MB threshold%n",
+				finished.name(),
+				finished.usage().peakRss() / (1024 * 1024),
+				rssWarning
+			);
+		}
+		var cpuWarning = Config.processCpuWarning();
+		if (cpuWarning > 0 && finished.usage().cpu().toSeconds() > cpuWarning) {
+			System.out.printf(
+				"[veles] Warning: %s used %d s of CPU time, above the %d s threshold%n",
+				finished.name(),
+				finished.usage().cpu().toSeconds(),
+				cpuWarning
+			);
+		}
+	}
+
+	/// Print the wall time and resource usage of every process that finished, in `--verbose`
+	public void printSummary() {
+		if (!opts.verbose || finished.isEmpty()) {
+			return;
+		}
+
+		System.out.println("[veles] Processes:");
+		for (var process : finished) {
+			System.out.printf(
+				"[veles]   %-14s exit %3d, %6.1f s, %s%n",
+				process.name(),
+				process.exitCode(),
+				process.took().toMillis() / 1000.0,
+				process.usage()
+			);
+		}
+	}
+
 	public void beforeStart(Function<ProcessBuilder, Process> processBuilderDecorator) {
 		this.processBuilderDecorator = processBuilderDecorator;
 	}
 
+	/// Don't inherit the IO of the started processes, their output is drained by {@link OutputPump}
 	public void setQuiet(boolean quiet) {
 		this.quiet = quiet;
 	}
@@ -1,5 +1,7 @@
 package mixins;
 
+import java.nio.file.Path;
+
 import picocli.CommandLine.Option;
 
 public class CommonOptions {
@@ -11,4 +13,12 @@ public class CommonOptions {
 
 	@Option(names = { "-N", "--dry-run" }, description = "Do not perform any actions")
 	public boolean dryRun = false;
+
+	/// Read by `App` before the command runs, so that everything the command does is traced
+	@Option(
+		names = { "--trace" },
+		paramLabel = "<file>",
+		description = { "Write a Chrome trace of the steps and processes veles ran to the file" }
+	)
+	public Path trace;
 }
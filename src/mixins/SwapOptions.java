@@ -0,0 +1,47 @@
+package mixins;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.regex.Pattern;
+
+import common.Readiness;
+import picocli.CommandLine.Option;
+
+public class SwapOptions {
+	@Option(
+		names = { "--swap" },
+		description = { "Start the new process first and stop the old one once the new one is ready" }
+	)
+	public boolean enabled;
+
+	@Option(
+		names = { "--ready-port" },
+		description = { "New process is ready when it listens on this port",
+			"The process has to be able to bind while the old one runs (e.g. SO_REUSEPORT)",
+			"Linux only, elsewhere the old process can't be told apart, use --ready-log" }
+	)
+	public Integer port;
+
+	@Option(
+		names = { "--ready-log" },
+		description = { "New process is ready when it prints a line matching this regex" }
+	)
+	public Pattern logLine;
+
+	@Option(
+		names = { "--ready-url" },
+		description = { "New process is ready when this localhost URL responds with 2xx",
+			"and its port is listened on by the new process, Linux only like --ready-port" }
+	)
+	public URI url;
+
+	@Option(
+		names = { "--ready-timeout" },
+		description = { "Seconds to wait for the new process before giving up (default: 60)" }
+	)
+	public int timeoutSeconds = 60;
+
+	public Readiness readiness() {
+		return new Readiness(port, logLine, url, Duration.ofSeconds(timeoutSeconds));
+	}
+}
@@ -0,0 +1,56 @@
+package agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import utils.Fast;
+
+@Fast
+public class ToolWorkerTest {
+	@Test
+	public void quotedTextParsesBack() {
+		var text = "tab\t \"quoted\" back\\slash\r\nnext line \u0001 ünïcödé";
+		var frame = ToolWorker.parse("{\"id\":1,\"out\":" + ToolWorker.quote(text) + "}");
+
+		assertThat(frame).containsEntry("out", text);
+	}
+
+	@Test
+	public void controlCharactersAreEscaped() {
+		assertThat(ToolWorker.quote("a\u0001b\u001fc")).isEqualTo("\"a\\u0001b\\u001fc\"");
+		assertThat(ToolWorker.quote("")).isEqualTo("\"\"");
+	}
+
+	@Test
+	public void parsesUnicodeAndShortEscapes() {
+		var frame = ToolWorker.parse("{\"err\":\"\\u00e9\\u0041\\b\\f\\/\"}");
+
+		assertThat(frame).containsEntry("err", "éA\b\f/");
+	}
+
+	@Test
+	public void parsesNumbers() {
+		var frame = ToolWorker.parse("{ \"id\" : 42 , \"exit\":-1 }");
+
+		assertThat(frame).containsEntry("id", 42L).containsEntry("exit", -1L);
+	}
+
+	@Test
+	public void parsesArrays() {
+		var args = List.of("execute", "--select-class", "a \"b\"", "");
+		var json = args.stream().map(ToolWorker::quote).toList();
+		var frame = ToolWorker.parse("{\"id\":7,\"args\":[" + String.join(",", json) + "]}");
+
+		assertThat(frame).containsEntry("id", 7L).containsEntry("args", args);
+	}
+
+	@Test
+	public void parsesEmptyArrays() {
+		assertThat(ToolWorker.parse("{\"args\":[]}")).containsEntry("args", List.of());
+		assertThat(ToolWorker.parse("{\"args\":[ ],\"id\":3}")).containsEntry("id", 3L);
+		assertThat(ToolWorker.parse("{}")).isEmpty();
+	}
+}
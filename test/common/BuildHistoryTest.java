@@ -0,0 +1,66 @@
+package common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import common.BuildHistory.Entry;
+import utils.Fast;
+
+public class BuildHistoryTest {
+	@TempDir
+	Path dir;
+
+	@Test
+	@Fast
+	public void entriesSurviveTheRoundTrip() throws IOException {
+		BuildHistory.useDir(dir);
+		var entry = new Entry(
+			1_700_000_000_000L,
+			Path.of("/work/app"),
+			"compile",
+			"compile -t\t--jar",
+			1,
+			4200,
+			Map.of("compile", 3000L),
+			Map.of("deps", 42L)
+		);
+
+		BuildHistory.append(entry);
+
+		assertThat(BuildHistory.load()).singleElement().satisfies(loaded -> {
+			assertThat(loaded.project()).isEqualTo(Path.of("/work/app"));
+			assertThat(loaded.args()).isEqualTo("compile -t --jar");
+			assertThat(loaded.exitCode()).isEqualTo(1);
+			assertThat(loaded.millis()).isEqualTo(4200);
+			assertThat(loaded.phases()).containsEntry("compile", 3000L);
+			assertThat(loaded.counters()).containsEntry("deps", 42L);
+		});
+	}
+
+	@Test
+	@Fast
+	public void historyIsRotatedAndBounded() throws IOException {
+		BuildHistory.useDir(dir);
+		var args = "x".repeat(10_000);
+		var entries = (int) (BuildHistory.maxFileSize / args.length()) * (BuildHistory.keptFiles + 2);
+		for (int i = 0; i < entries; i++) {
+			BuildHistory.append(new Entry(i, Path.of("/p"), "compile", args, 0, i, Map.of(), Map.of()));
+		}
+
+		try (var files = Files.list(dir)) {
+			assertThat(files.filter(f -> f.toString().endsWith(".log")))
+				.hasSize(BuildHistory.keptFiles);
+		}
+		var loaded = BuildHistory.load();
+		assertThat(loaded.size()).isLessThan(entries);
+		assertThat(loaded.getLast().millis()).isEqualTo(entries - 1);
+		assertThat(loaded).isSortedAccordingTo((a, b) -> Long.compare(a.time(), b.time()));
+	}
+}
@@ -0,0 +1,75 @@
+package common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import utils.Fast;
+
+@Fast
+public class ClassGraphTest {
+	@TempDir
+	Path root;
+
+	@Test
+	public void inheritedSignatureChangeReachesCallersOfTheSubtype() throws IOException {
+		write("p/Base.java", "package p; public class Base { public void m() {} }");
+		write("p/Sub.java", "package p; public class Sub extends Base {}");
+		write("p/Leaf.java", "package p; public class Leaf extends Sub {}");
+		write("p/Caller.java", "package p; public class Caller { void call(Sub sub) { sub.m(); } }");
+		javac("p/Base.java", "p/Sub.java", "p/Leaf.java", "p/Caller.java");
+		var graph = new ClassGraph().add(root.resolve("classes"), root);
+		graph.refresh();
+
+		write("p/Base.java", "package p; public class Base { public int m() { return 1; } }");
+		javac("p/Base.java");
+		graph.refresh();
+
+		assertThat(graph.abiChanged()).containsExactlyInAnyOrder("p.Base", "p.Sub", "p.Leaf");
+		assertThat(graph.dependents(graph.abiChanged(), false)).contains("p.Caller");
+	}
+
+	@Test
+	public void bodyChangeKeepsTheSubtypes() throws IOException {
+		write("p/Base.java", "package p; public class Base { public void m() {} }");
+		write("p/Sub.java", "package p; public class Sub extends Base {}");
+		javac("p/Base.java", "p/Sub.java");
+		var graph = new ClassGraph().add(root.resolve("classes"), root);
+		graph.refresh();
+
+		write("p/Base.java", "package p; public class Base { public void m() { m(); } }");
+		javac("p/Base.java");
+
+		assertThat(graph.refresh()).containsExactly("p.Base");
+		assertThat(graph.abiChanged()).isEmpty();
+		assertThat(graph.subtypes(Set.of("p.Base"))).containsExactly("p.Sub");
+	}
+
+	private void javac(String... sources) {
+		var args = new ArrayList<String>();
+		args.addAll(List.of("-d", root.resolve("classes").toString()));
+		args.addAll(List.of("-cp", root.resolve("classes").toString()));
+		for (var source : sources) {
+			args.add(root.resolve(source).toString());
+		}
+
+		var javac = ToolProvider.getSystemJavaCompiler();
+		assertThat(javac.run(null, null, null, args.toArray(String[]::new))).isZero();
+	}
+
+	private void write(String path, String content) throws IOException {
+		var file = root.resolve(path);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+}
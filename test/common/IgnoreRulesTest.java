@@ -0,0 +1,53 @@
+package common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import utils.Fast;
+
+@Fast
+public class IgnoreRulesTest {
+	private final IgnoreRules rules = new IgnoreRules().add("# comment")
+		.add("node_modules/")
+		.add("/dist")
+		.add("*.log")
+		.add("!keep.log")
+		.add("frontend/**/fixtures")
+		.add("gen?/");
+
+	@Test
+	public void matchesNamesAtAnyDepth() {
+		assertThat(rules.isIgnored(Path.of("server.log"), false)).isTrue();
+		assertThat(rules.isIgnored(Path.of("src", "logs", "server.log"), false)).isTrue();
+		assertThat(rules.isIgnored(Path.of("src", "server.log.txt"), false)).isFalse();
+	}
+
+	@Test
+	public void negationReincludes() {
+		assertThat(rules.isIgnored(Path.of("src", "keep.log"), false)).isFalse();
+	}
+
+	@Test
+	public void directoryRulesIgnoreEverythingInside() {
+		assertThat(rules.isIgnored(Path.of("web", "node_modules"), true)).isTrue();
+		assertThat(rules.isIgnored(Path.of("web", "node_modules", "a", "index.js"), false)).isTrue();
+		assertThat(rules.isIgnored(Path.of("node_modules"), false)).isFalse();
+		assertThat(rules.isIgnored(Path.of("gen1", "A.java"), false)).isTrue();
+	}
+
+	@Test
+	public void leadingSlashAnchorsToRoot() {
+		assertThat(rules.isIgnored(Path.of("dist", "app.js"), false)).isTrue();
+		assertThat(rules.isIgnored(Path.of("frontend", "dist", "app.js"), false)).isFalse();
+	}
+
+	@Test
+	public void doubleStarMatchesAnyDepth() {
+		assertThat(rules.isIgnored(Path.of("frontend", "fixtures", "a.json"), false)).isTrue();
+		assertThat(rules.isIgnored(Path.of("frontend", "a", "b", "fixtures"), true)).isTrue();
+		assertThat(rules.isIgnored(Path.of("backend", "fixtures"), true)).isFalse();
+	}
+}
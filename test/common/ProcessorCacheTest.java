@@ -0,0 +1,103 @@
+package common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import utils.Fast;
+
+@Fast
+public class ProcessorCacheTest {
+	private static final List<String> options = List.of("-proc:full");
+
+	@TempDir
+	Path root;
+
+	@BeforeEach
+	public void recordAProcessingRun() throws IOException {
+		write("src/p/Entity.java", "package p; public @interface Entity {}");
+		write("src/p/Order.java", "package p; @Entity public class Order { Customer customer; }");
+		write("src/p/Customer.java", "package p; public class Customer extends Party {}");
+		write("src/p/Party.java", "package p; public class Party { String name; }");
+		write("src/p/Report.java", "package p; public class Report { void print() {} }");
+
+		var cache = cache();
+		assertThat(cache.reuse(options, List.of())).isFalse();
+		compile();
+		cache.record();
+	}
+
+	@Test
+	public void unchangedSourcesReuseTheOutputs() {
+		assertThat(cache().reuse(options, List.of())).isTrue();
+	}
+
+	@Test
+	public void unrelatedEditReusesTheOutputs() throws IOException {
+		write("src/p/Report.java", "package p; public class Report { void print() { print(); } }");
+
+		assertThat(cache().reuse(options, List.of())).isTrue();
+	}
+
+	@Test
+	public void editOfAReachedSupertypeRunsTheProcessors() throws IOException {
+		write("src/p/Party.java", "package p; public class Party { String name, email; }");
+
+		assertThat(cache().reuse(options, List.of())).isFalse();
+	}
+
+	@Test
+	public void newlyAnnotatedSourceRunsTheProcessors() throws IOException {
+		write("src/p/Report.java", "package p; @Entity public class Report {}");
+
+		assertThat(cache().reuse(options, List.of())).isFalse();
+	}
+
+	@Test
+	public void changedOptionsRunTheProcessors() {
+		assertThat(cache().reuse(List.of("-proc:full", "-parameters"), List.of())).isFalse();
+	}
+
+	private ProcessorCache cache() {
+		return new ProcessorCache(
+			root.resolve("veles"),
+			root.resolve("src"),
+			root.resolve("generated"),
+			root.resolve("classes"),
+			sources()
+		);
+	}
+
+	private List<Path> sources() {
+		try (var files = Files.walk(root.resolve("src"))) {
+			return files.filter(f -> f.toString().endsWith(".java")).sorted().toList();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void compile() {
+		var args = new ArrayList<String>();
+		args.addAll(List.of("-d", root.resolve("classes").toString()));
+		sources().forEach(source -> args.add(source.toString()));
+
+		var javac = ToolProvider.getSystemJavaCompiler();
+		assertThat(javac.run(null, null, null, args.toArray(String[]::new))).isZero();
+	}
+
+	private void write(String path, String content) throws IOException {
+		var file = root.resolve(path);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+}
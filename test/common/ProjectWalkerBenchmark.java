@@ -0,0 +1,63 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/// Compares {@link ProjectWalker} with a plain {@link Files#walk} on a tree of 200k files, half of
+/// them in an ignored `node_modules`. Not a test, so the test runs leave it out, run it with
+/// `java -cp target/classes:target/test-classes common.ProjectWalkerBenchmark`.
+public class ProjectWalkerBenchmark {
+	public static void main(String[] args) throws IOException {
+		var root = Files.createTempDirectory("veles-walker");
+		try {
+			write(root.resolve(".gitignore"), "node_modules/\n");
+			for (int d = 0; d < 1000; d++) {
+				var dir = root.resolve(d < 500 ? "src/pkg" + d : "node_modules/lib" + d);
+				for (int f = 0; f < 200; f++) {
+					write(dir.resolve("File" + f + ".java"), "");
+				}
+			}
+
+			var walker = new ProjectWalker(root);
+			var walked = new ArrayList<Path>();
+			var walkerMillis = measure(() -> walked.addAll(walker.files(Path.of(""))));
+
+			var visited = new AtomicInteger();
+			var filesWalkMillis = measure(() -> {
+				try (var files = Files.walk(root)) {
+					files.filter(f -> !f.getFileName().toString().startsWith("."))
+						.filter(Files::isRegularFile)
+						.forEach(_ -> visited.incrementAndGet());
+				}
+			});
+
+			System.out.printf(
+				"ProjectWalker: %d files in %d ms, Files.walk: %d files in %d ms%n",
+				walked.size(),
+				walkerMillis,
+				visited.get(),
+				filesWalkMillis
+			);
+		} finally {
+			FilesUtil.deleteDir(root);
+		}
+	}
+
+	private interface Action {
+		void run() throws IOException;
+	}
+
+	private static long measure(Action action) throws IOException {
+		var start = System.nanoTime();
+		action.run();
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+	private static void write(Path file, String content) throws IOException {
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+}
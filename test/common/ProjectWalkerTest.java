@@ -0,0 +1,79 @@
+package common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import utils.Fast;
+
+public class ProjectWalkerTest {
+	@TempDir
+	Path root;
+
+	@Test
+	@Fast
+	public void prunesIgnoredDirectories() throws IOException {
+		write(".gitignore", "node_modules/\n");
+		write(".velesignore", "frontend/dist/\n");
+		write("src/App.java", "");
+		write("node_modules/lib/index.js", "");
+		write("frontend/dist/app.js", "");
+		write("frontend/src/app.js", "");
+		write("target/classes/App.class", "");
+		write(".idea/workspace.xml", "");
+
+		var files = new ProjectWalker(root).files(Path.of(""));
+
+		assertThat(files).containsExactlyInAnyOrder(
+			Path.of("src", "App.java"),
+			Path.of("frontend", "src", "app.js")
+		);
+	}
+
+	@Test
+	@Fast
+	public void nestedIgnoreFilesApplyBelowTheirDirectory() throws IOException {
+		write("fixtures/.gitignore", "generated/\n*.tmp.json\n!keep.tmp.json\n");
+		write("fixtures/generated/a.json", "");
+		write("fixtures/a.tmp.json", "");
+		write("fixtures/keep.tmp.json", "");
+		write("fixtures/b.json", "");
+		write("other/generated/a.json", "");
+
+		var walker = new ProjectWalker(root);
+		var files = walker.files(Path.of(""));
+
+		assertThat(files).containsExactlyInAnyOrder(
+			Path.of("fixtures", "keep.tmp.json"),
+			Path.of("fixtures", "b.json"),
+			Path.of("other", "generated", "a.json")
+		);
+		assertThat(walker.isIgnored(Path.of("fixtures", "generated", "b.json"), false)).isTrue();
+		assertThat(walker.isIgnored(Path.of("other", "generated", "b.json"), false)).isFalse();
+	}
+
+	@Test
+	@Fast
+	public void invalidatedRulesAreReadAgain() throws IOException {
+		write("fixtures/.gitignore", "generated/\n");
+		var walker = new ProjectWalker(root);
+		assertThat(walker.isIgnored(Path.of("fixtures", "generated"), true)).isTrue();
+
+		write("fixtures/.gitignore", "");
+		assertThat(walker.isIgnored(Path.of("fixtures", "generated"), true)).isTrue();
+
+		walker.invalidate(Path.of("fixtures"));
+		assertThat(walker.isIgnored(Path.of("fixtures", "generated"), true)).isFalse();
+	}
+
+	private void write(String relative, String content) throws IOException {
+		var file = root.resolve(relative);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+}
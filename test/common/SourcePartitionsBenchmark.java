@@ -0,0 +1,83 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/// Compares a single javac with the layered groups of {@link SourcePartitions}, on 4 layers of 16
+/// packages with 50 classes each. Not a test, so the test runs leave it out, run it with
+/// `java -cp target/classes:target/test-classes common.SourcePartitionsBenchmark`.
+public class SourcePartitionsBenchmark {
+	public static void main(String[] args) throws IOException, InterruptedException {
+		var root = Files.createTempDirectory("veles-partitions");
+		try {
+			// every package uses one of the layer below
+			var sources = new ArrayList<Path>();
+			for (int layer = 0; layer < 4; layer++) {
+				for (int pkg = 0; pkg < 16; pkg++) {
+					for (int cls = 0; cls < 50; cls++) {
+						var name = "l%d.p%d".formatted(layer, pkg);
+						var field = layer == 0 ? "" : "l%d.p%d.C0 dep;".formatted(layer - 1, pkg);
+						var source = root.resolve("src/" + name.replace('.', '/') + "/C" + cls + ".java");
+						Files.createDirectories(source.getParent());
+						Files.writeString(
+							source,
+							"package %s; public class C%d { %s public int m(int x) { return x * %d; } }"
+								.formatted(name, cls, field, cls)
+						);
+						sources.add(source);
+					}
+				}
+			}
+
+			var javac = Path.of(System.getProperty("java.home"), "bin", "javac").toString();
+			var single = root.resolve("out-single");
+			var start = System.nanoTime();
+			var command = new ArrayList<>(List.of(javac, "-d", single.toString()));
+			sources.forEach(s -> command.add(s.toString()));
+			run(List.of(command));
+			var singleMillis = (System.nanoTime() - start) / 1_000_000;
+
+			var parallel = root.resolve("out-parallel");
+			start = System.nanoTime();
+			var width = Runtime.getRuntime().availableProcessors();
+			var layers = new SourcePartitions(root.resolve("src"), sources).layers(width);
+			for (var layer : layers) {
+				var commands = new ArrayList<List<String>>();
+				for (var group : layer) {
+					var groupCommand = new ArrayList<>(List.of(javac, "-d", parallel.toString()));
+					groupCommand.addAll(List.of("-cp", parallel.toString(), "-implicit:none"));
+					groupCommand.addAll(List.of("--source-path", root.resolve("src").toString()));
+					group.forEach(s -> groupCommand.add(s.toString()));
+					commands.add(groupCommand);
+				}
+				run(commands);
+			}
+			var parallelMillis = (System.nanoTime() - start) / 1_000_000;
+
+			System.out.printf(
+				"Single javac: %d ms, %d layers on %d processors: %d ms%n",
+				singleMillis,
+				layers.size(),
+				width,
+				parallelMillis
+			);
+		} finally {
+			FilesUtil.deleteDir(root);
+		}
+	}
+
+	private static void run(List<List<String>> commands) throws IOException, InterruptedException {
+		var processes = new ArrayList<Process>();
+		for (var command : commands) {
+			processes.add(new ProcessBuilder(command).inheritIO().start());
+		}
+		for (var process : processes) {
+			if (process.waitFor() != 0) {
+				throw new RuntimeException("javac failed: " + process.info().commandLine().orElse(""));
+			}
+		}
+	}
+}
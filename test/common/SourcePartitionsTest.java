@@ -0,0 +1,68 @@
+package common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import utils.Fast;
+
+public class SourcePartitionsTest {
+	@TempDir
+	Path root;
+
+	@Test
+	@Fast
+	public void cyclesShareAPartitionAndDependentsComeLater() throws IOException {
+		write("a/A.java", "package a; public class A {}");
+		write("b/B.java", "package b;\nimport a.A;\npublic class B { c.C c; }");
+		write("c/C.java", "package c;\nimport b.*;\npublic class C { B b; }");
+		write("d/D.java", "package d; public class D { a.A a; }");
+		write("e/E.java", "package e; public class E {}");
+
+		var layers = new SourcePartitions(root, sources()).layers(4);
+
+		assertThat(layers).hasSize(2);
+		assertThat(layers.get(0)).containsExactlyInAnyOrder(
+			List.of(root.resolve("a/A.java")),
+			List.of(root.resolve("e/E.java"))
+		);
+		assertThat(layers.get(1)).hasSize(2)
+			.anySatisfy(group -> assertThat(group).containsExactlyInAnyOrder(
+				root.resolve("b/B.java"),
+				root.resolve("c/C.java")
+			))
+			.anySatisfy(group -> assertThat(group).containsExactly(root.resolve("d/D.java")));
+	}
+
+	@Test
+	@Fast
+	public void layersArePackedIntoTheGivenWidth() throws IOException {
+		for (int i = 0; i < 10; i++) {
+			write("p" + i + "/C.java", "package p" + i + "; public class C {}");
+		}
+
+		var layers = new SourcePartitions(root, sources()).layers(3);
+
+		assertThat(layers).hasSize(1);
+		assertThat(layers.get(0)).hasSize(3);
+		assertThat(layers.get(0).stream().mapToInt(List::size).sum()).isEqualTo(10);
+	}
+
+	private List<Path> sources() throws IOException {
+		try (var files = Files.walk(root)) {
+			return files.filter(f -> f.toString().endsWith(".java")).sorted().toList();
+		}
+	}
+
+	private void write(String relative, String content) throws IOException {
+		var file = root.resolve(relative);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+}
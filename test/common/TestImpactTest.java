@@ -0,0 +1,164 @@
+package common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import utils.Fast;
+
+@Fast
+public class TestImpactTest {
+	@TempDir
+	Path root;
+
+	@BeforeEach
+	public void compileFixture() throws IOException {
+		write("src/p/Base.java", "package p; public class Base {}");
+		write("src/p/Middle.java", "package p; public class Middle { Base base; }");
+		write("src/p/Other.java", "package p; public class Other {}");
+		write("test/p/MiddleTest.java", "package p; public class MiddleTest { Middle middle; }");
+		write("test/p/OtherTest.java", "package p; public class OtherTest { Other other; }");
+		write(
+			"test/p/NestedTest.java",
+			"package p; public class NestedTest { static class Inner { Base base; } }"
+		);
+		compile();
+	}
+
+	@Test
+	public void missingSnapshotRunsAllTests() {
+		assertThat(impact(null).select(_ -> true)).isNull();
+	}
+
+	@Test
+	public void nothingIsSelectedWithoutChanges() {
+		impact(null).record();
+
+		assertThat(impact(null).select(_ -> true)).isEmpty();
+	}
+
+	@Test
+	public void changedClassSelectsTheTestsReferencingItTransitively() throws IOException {
+		impact(null).record();
+		write("src/p/Base.java", "package p; public class Base { public void added() {} }");
+		compile();
+
+		assertThat(impact(null).select(_ -> true)).containsExactly("p.MiddleTest", "p.NestedTest");
+		assertThat(impact(null).select(name -> !name.startsWith("p.Nested")))
+			.containsExactly("p.MiddleTest");
+	}
+
+	@Test
+	public void changedResourceRunsAllTests() throws IOException {
+		impact(null).record();
+		write("classes/app.properties", "changed=true");
+
+		assertThat(impact(null).select(_ -> true)).isNull();
+	}
+
+	@Test
+	public void changedTestIsSelected() throws IOException {
+		impact(null).record();
+		write("test/p/OtherTest.java", "package p; public class OtherTest { Other other, more; }");
+		compile();
+
+		assertThat(impact(null).select(_ -> true)).containsExactly("p.OtherTest");
+	}
+
+	@Test
+	public void gitPathsAreMappedToTheirClasses() throws IOException {
+		var impact = impact("HEAD");
+		var base = root.resolve("src/p/Base.java").toString();
+		var deleted = root.resolve("src/p/Deleted.java").toString();
+		var outside = root.resolve("README.md").toString();
+
+		assertThat(impact.changedClasses(List.of(base, deleted, outside))).containsExactly("p.Base");
+
+		write("src/p/app.properties", "changed=true");
+		var resource = root.resolve("src/p/app.properties").toString();
+		assertThat(impact.changedClasses(List.of(base, resource))).isNull();
+		assertThat(impact.changedClasses(List.of("veles.yaml"))).isNull();
+	}
+
+	@Test
+	public void deletedResourceRunsAllTests() {
+		var impact = impact("HEAD");
+		var base = root.resolve("src/p/Base.java").toString();
+		var deleted = root.resolve("src/p/deleted.properties").toString();
+
+		assertThat(impact.changedClasses(List.of(base, deleted))).isNull();
+	}
+
+	@Test
+	public void affectedTestsAreTopLevelTestClasses() {
+		var graph = graph();
+
+		assertThat(TestImpact.affectedTests(graph, Set.of("p.Base"), root.resolve("test-classes")))
+			.containsExactly("p.MiddleTest", "p.NestedTest");
+		assertThat(TestImpact.affectedTests(graph, Set.of("p.Middle"), root.resolve("test-classes")))
+			.containsExactly("p.MiddleTest");
+		assertThat(TestImpact.affectedTests(graph, Set.of("p.Gone"), root.resolve("test-classes")))
+			.isEmpty();
+	}
+
+	private TestImpact impact(String ref) {
+		return new TestImpact(
+			graph(),
+			roots(),
+			root.resolve("test-classes"),
+			root.resolve("veles", "impact.idx"),
+			ref
+		);
+	}
+
+	private ClassGraph graph() {
+		var graph = new ClassGraph();
+		roots().forEach(graph::add);
+		graph.refresh();
+		return graph;
+	}
+
+	private Map<Path, Path> roots() {
+		return Map.of(
+			root.resolve("classes"),
+			root.resolve("src"),
+			root.resolve("test-classes"),
+			root.resolve("test")
+		);
+	}
+
+	private void compile() throws IOException {
+		javac(root.resolve("src"), root.resolve("classes"));
+		javac(root.resolve("test"), root.resolve("test-classes"));
+	}
+
+	private void javac(Path sourceDir, Path classesDir) throws IOException {
+		var args = new ArrayList<String>();
+		args.addAll(List.of("-d", classesDir.toString()));
+		args.addAll(List.of("-cp", root.resolve("classes").toString()));
+		try (var files = Files.walk(sourceDir)) {
+			files.filter(f -> f.toString().endsWith(".java")).forEach(f -> args.add(f.toString()));
+		}
+
+		var javac = ToolProvider.getSystemJavaCompiler();
+		assertThat(javac.run(null, null, null, args.toArray(String[]::new))).isZero();
+	}
+
+	private void write(String path, String content) throws IOException {
+		var file = root.resolve(path);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+}
@@ -0,0 +1,131 @@
+package common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import utils.Fast;
+
+@Fast
+public class TestShardsTest {
+	@TempDir
+	Path dir;
+
+	@Test
+	public void longestClassesAreSpreadFirst() throws IOException {
+		Files.writeString(dir.resolve("times.idx"), """
+			9000 p.SlowTest
+			4000 p.MediumTest
+			3000 p.OtherTest
+			2000 p.FastTest
+			""");
+		var shards = new TestShards(dir.resolve("times.idx"));
+
+		var split = shards.split(List.of("p.FastTest", "p.MediumTest", "p.OtherTest", "p.SlowTest"), 2);
+
+		assertThat(split).containsExactly(
+			List.of("p.SlowTest"),
+			List.of("p.MediumTest", "p.OtherTest", "p.FastTest")
+		);
+	}
+
+	@Test
+	public void unknownClassesTakeTheAverage() throws IOException {
+		Files.writeString(dir.resolve("times.idx"), "9000 p.SlowTest\n1000 p.FastTest\n");
+		var shards = new TestShards(dir.resolve("times.idx"));
+
+		var split = shards.split(List.of("p.SlowTest", "p.FastTest", "p.NewTest"), 2);
+
+		assertThat(split).containsExactly(List.of("p.SlowTest"), List.of("p.NewTest", "p.FastTest"));
+	}
+
+	@Test
+	public void noShardIsEmpty() {
+		var shards = new TestShards(dir.resolve("missing.idx"));
+
+		assertThat(shards.split(List.of("p.ATest", "p.BTest"), 4)).containsExactly(
+			List.of("p.ATest"),
+			List.of("p.BTest")
+		);
+		assertThat(shards.split(List.of(), 4)).isEmpty();
+	}
+
+	@Test
+	public void durationsAreRecordedFromTheOpenReports() throws IOException {
+		var reports = Files.createDirectories(dir.resolve("reports"));
+		Files.writeString(reports.resolve("junit-platform-events-1.xml"), """
+			<?xml version="1.0" encoding="UTF-8"?>
+			<e:events xmlns:e="https://schemas.opentest4j.org/reporting/events/0.2.0"
+				xmlns:junit="https://schemas.junit.org/open-test-reporting">
+				<e:started id="1" name="JUnit Jupiter" time="2025-01-01T10:00:00Z">
+					<metadata><junit:uniqueId>[engine:junit-jupiter]</junit:uniqueId></metadata>
+				</e:started>
+				<e:started id="2" name="ATest" parentId="1" time="2025-01-01T10:00:00.100Z">
+					<metadata>
+						<junit:uniqueId>[engine:junit-jupiter]/[class:p.ATest]</junit:uniqueId>
+					</metadata>
+				</e:started>
+				<e:started id="3" name="m()" parentId="2" time="2025-01-01T10:00:00.200Z">
+					<metadata>
+						<junit:uniqueId>[engine:junit-jupiter]/[class:p.ATest]/[method:m()]</junit:uniqueId>
+					</metadata>
+				</e:started>
+				<e:finished id="3" time="2025-01-01T10:00:05Z"/>
+				<e:finished id="2" time="2025-01-01T10:00:09.100Z"/>
+				<e:finished id="1" time="2025-01-01T10:00:10Z"/>
+			</e:events>
+			""");
+		var times = dir.resolve("veles", "times.idx");
+
+		new TestShards(times).record(reports, Instant.now().minusSeconds(60));
+
+		assertThat(Files.readAllLines(times)).containsExactly("9000 p.ATest");
+	}
+
+	@Test
+	public void forkReportsAreMerged() throws IOException {
+		var reports = dir.resolve("reports");
+		var forks = List.of(reports.resolve("fork-1"), reports.resolve("fork-2"));
+		for (int fork = 0; fork < forks.size(); fork++) {
+			Files.createDirectories(forks.get(fork));
+			Files.writeString(forks.get(fork).resolve("TEST-junit-jupiter.xml"), """
+				<?xml version="1.0" encoding="UTF-8"?>
+				<testsuite name="JUnit Jupiter" tests="2" skipped="0" failures="%d" errors="0" time="%s">
+					<testcase name="t%d" classname="p.ATest"/>
+				</testsuite>
+				""".formatted(fork, fork == 0 ? "1.5" : "3.0", fork));
+			Files.writeString(forks.get(fork).resolve("junit-platform-events-1.xml"), "<e/>");
+		}
+
+		TestShards.merge(forks, reports);
+
+		try (var files = Files.list(reports)) {
+			assertThat(files.map(f -> f.getFileName().toString())).containsExactlyInAnyOrder(
+				"TEST-junit-jupiter.xml",
+				"junit-platform-events-1.xml",
+				"junit-platform-events-1-2.xml"
+			);
+		}
+		var merged = Files.readString(reports.resolve("TEST-junit-jupiter.xml"));
+		assertThat(merged).contains("tests=\"4\"", "failures=\"1\"", "time=\"3.0\"")
+			.contains("name=\"t0\"", "name=\"t1\"");
+		assertThat(TestShards.testCount(reports)).isEqualTo(4);
+	}
+
+	@Test
+	public void noTestsAreCounted() throws IOException {
+		Files.writeString(
+			dir.resolve("TEST-junit-jupiter.xml"),
+			"<testsuite name=\"JUnit Jupiter\" tests=\"0\" time=\"0.1\"/>"
+		);
+
+		assertThat(TestShards.testCount(dir)).isZero();
+	}
+}